@@ -42,13 +42,22 @@ application {
     mainClass = "org.example.App"
 }
 
+// MillerRabin32Vector uses the incubating Vector API.
+tasks.withType<JavaCompile>().configureEach {
+    options.compilerArgs.add("--add-modules=jdk.incubator.vector")
+}
+
+tasks.withType<JavaExec>().configureEach {
+    jvmArgs("--add-modules=jdk.incubator.vector")
+}
+
 tasks.named<Test>("test") {
     // Use JUnit Platform for unit tests.
     useJUnitPlatform()
 }
 
 tasks.test {
-    jvmArgs = listOf("-Xmx2g")  // Set max heap size to 2GB (you can increase/decrease as needed)
+    jvmArgs = listOf("-Xmx2g", "--add-modules=jdk.incubator.vector")  // Set max heap size to 2GB (you can increase/decrease as needed)
 
     testLogging {
         events("passed", "skipped", "failed", "standardOut", "standardError")
@@ -70,6 +79,74 @@ tasks.register<JavaExec>("runBenchmark") {
     mainClass.set("xknr.millerrabin.Benchmark")
 }
 
+tasks.register<JavaExec>("filterPrimes") {
+    group = "application"
+    description = "Filter a file of decimal or binary numbers down to its primes"
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("xknr.millerrabin.PrimeFilter")
+}
+
+tasks.register<JavaExec>("runServer") {
+    group = "application"
+    description = "Serve primality tests over HTTP on the loopback interface"
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("xknr.millerrabin.PrimalityServer")
+}
+
+tasks.register<JavaExec>("generateHashedBases") {
+    group = "application"
+    description = "Regenerate the 32-bit hashed base table of MillerRabinHashed"
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("xknr.millerrabin.MillerRabinHashedGenerator")
+    args = listOf("generate")
+    jvmArgs("-Xmx2g")
+}
+
+tasks.register<JavaExec>("verifyHashedBases") {
+    group = "application"
+    description = "Verify MillerRabinHashed against a sieve for all n < 2^32"
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("xknr.millerrabin.MillerRabinHashedGenerator")
+    args = listOf("verify")
+    jvmArgs("-Xmx2g")
+}
+
+val pspLimit = project.findProperty("pspLimit")?.toString()
+val pspList = project.findProperty("pspList")?.toString()
+
+tasks.register<JavaExec>("generateHashedBases64") {
+    group = "application"
+    description = "Regenerate the 64-bit hashed base table of MillerRabinHashed, [-PpspLimit=<n>] [-PpspList=<file>]"
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("xknr.millerrabin.MillerRabinHashedGenerator")
+    args = listOfNotNull("generate64", pspLimit?.let { "to=$it" }, pspList?.let { "list=$it" })
+    jvmArgs("-Xmx2g")
+}
+
+tasks.register<JavaExec>("verifyHashedBases64") {
+    group = "application"
+    description = "Verify the 64-bit hashed bases of MillerRabinHashed, [-PpspList=<file>]"
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("xknr.millerrabin.MillerRabinHashedGenerator")
+    args = listOfNotNull("verify64", pspList?.let { "list=$it" })
+    jvmArgs("-Xmx2g")
+}
+
+tasks.register<JavaExec>("generatePrimeTable") {
+    group = "application"
+    description = "Write the mapped primality table for n < 2^32 to primes32.bin"
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("xknr.millerrabin.MappedPrimeTable")
+    args = listOf("generate", "primes32.bin")
+}
+
+tasks.register<JavaExec>("runCensus") {
+    group = "application"
+    description = "List strong pseudoprimes to a base set, or validate a witness set against such a list"
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("xknr.millerrabin.PseudoprimeCensus")
+}
+
 sourceSets["main"].java.srcDirs(
     "../euler-util/src/main/java",
     "libs/int128/src/main/java"
@@ -80,3 +157,28 @@ sourceSets["test"].java.srcDirs(
     "../euler-util/src/test/java"
 )
 
+// JMH benchmarks in src/jmh/java, run with ./gradlew runJmh.
+val jmh by sourceSets.creating {
+    compileClasspath += sourceSets["main"].output
+    runtimeClasspath += sourceSets["main"].output
+}
+
+configurations["jmhImplementation"].extendsFrom(configurations.implementation.get())
+configurations["jmhRuntimeOnly"].extendsFrom(configurations.runtimeOnly.get())
+
+dependencies {
+    "jmhImplementation"("org.openjdk.jmh:jmh-core:1.37")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:1.37")
+}
+
+tasks.register<JavaExec>("runJmh") {
+    group = "application"
+    description = "Run the JMH benchmarks with the gc profiler, -Pjmh=<regex> selects benchmarks"
+    classpath = jmh.runtimeClasspath
+    mainClass.set("org.openjdk.jmh.Main")
+    val results = layout.buildDirectory.file("jmh/results.json").get().asFile
+    doFirst { results.parentFile.mkdirs() }
+    args = listOf("-prof", "gc", "-rf", "json", "-rff", results.path) +
+        listOfNotNull(project.findProperty("jmh")?.toString())
+}
+
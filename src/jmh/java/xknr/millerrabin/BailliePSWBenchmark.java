@@ -0,0 +1,70 @@
+package xknr.millerrabin;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * BailliePSW against isProbablePrime(30) at and above LIMIT13. Scores are per number tested.
+ * No pseudoprimes kind, finding p and 2p - 1 both prime takes too long at these sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class BailliePSWBenchmark
+{
+  static final int COUNT = 32;
+
+  @Param({"128", "512", "2048"})
+  public int bits;
+
+  @Param({"mixed", "primes", "composites"})
+  public String kind;
+
+  @Param({"sequential", "random"})
+  public String order;
+
+  private final BailliePSW bpsw = new BailliePSW();
+
+  private BigInteger[] nums;
+
+  @Setup
+  public void setup() {
+    nums = Inputs.bigs(bits, kind, order, COUNT);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(COUNT)
+  public int bpsw() {
+    int primes = 0;
+    for(BigInteger n : nums)
+      if (bpsw.isPrime(n))
+        primes++;
+    return primes;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(COUNT)
+  public int probablePrime() {
+    int primes = 0;
+    for(BigInteger n : nums)
+      if (n.isProbablePrime(30))
+        primes++;
+    return primes;
+  }
+}
@@ -0,0 +1,103 @@
+package xknr.millerrabin;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Engines for n above the long range and below MillerRabinBig.LIMIT13 (about 2^81.5).
+ * MillerRabin128 reads (high, low) from two long[], the others take the same numbers as BigInteger.
+ * Scores are per number tested.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class BigEngineBenchmark
+{
+  static final int COUNT = 256;
+
+  @Param({"64", "81"})
+  public int bits;
+
+  @Param({"mixed", "primes", "composites", "pseudoprimes"})
+  public String kind;
+
+  @Param({"sequential", "random"})
+  public String order;
+
+  private final MillerRabinBig mrbig = new MillerRabinBig();
+  private final MillerRabin128 mr128 = new MillerRabin128();
+
+  private BigInteger[] nums;
+  private long[] highs;
+  private long[] lows;
+
+  @Setup
+  public void setup() {
+    nums = Inputs.bigs(bits, kind, order, COUNT);
+    highs = new long[COUNT];
+    lows = new long[COUNT];
+    for(int i = 0; i < COUNT; i++) {
+      highs[i] = nums[i].shiftRight(64).longValue();
+      lows[i] = nums[i].longValue();
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(COUNT)
+  public int mrbig() {
+    int primes = 0;
+    for(BigInteger n : nums)
+      if (mrbig.isPrime(n))
+        primes++;
+    return primes;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(COUNT)
+  public int mr128() {
+    int primes = 0;
+    for(int i = 0; i < COUNT; i++)
+      if (mr128.isPrime(highs[i], lows[i]))
+        primes++;
+    return primes;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(COUNT)
+  public int primality() {
+    int primes = 0;
+    for(BigInteger n : nums)
+      if (Primality.isPrime(n))
+        primes++;
+    return primes;
+  }
+
+  /**
+   * The reference of the old Benchmark, isProbablePrime(30).
+   */
+  @Benchmark
+  @OperationsPerInvocation(COUNT)
+  public int probablePrime() {
+    int primes = 0;
+    for(BigInteger n : nums)
+      if (n.isProbablePrime(30))
+        primes++;
+    return primes;
+  }
+}
@@ -0,0 +1,88 @@
+package xknr.millerrabin;
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Factorizer64 against Pollard rho on BigInteger (Floyd cycle finding, one gcd per step),
+ * on random semiprimes p * q with p and q of half the bits each, the hard case for rho.
+ * Scores are per semiprime.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class FactorizerBenchmark
+{
+  static final int COUNT = 16;
+
+  @Param({"32", "48", "62"})
+  public int bits;
+
+  private final Factorizer64 factorizer = new Factorizer64();
+  private final long[] out = new long[Factorizer64.MAX_FACTORS];
+
+  private long[] nums;
+
+  @Setup
+  public void setup() {
+    Random rnd = new Random(1);
+    nums = new long[COUNT];
+    for(int i = 0; i < COUNT; i++)
+      nums[i] = prime(bits / 2, rnd) * prime(bits - bits / 2, rnd);
+  }
+
+  private static long prime(int bits, Random rnd) {
+    return Primality.nextPrime((1L << (bits - 1)) + (rnd.nextLong() >>> (65 - bits)));
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(COUNT)
+  public long factorizer64() {
+    long sum = 0;
+    for(long n : nums) {
+      factorizer.factor(n, out);
+      sum += out[0];
+    }
+    return sum;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(COUNT)
+  public long bigIntegerRho() {
+    long sum = 0;
+    for(long n : nums)
+      sum += rho(BigInteger.valueOf(n)).longValue();
+    return sum;
+  }
+
+  private static BigInteger rho(BigInteger n) {
+    for(BigInteger c = BigInteger.ONE; ; c = c.add(BigInteger.ONE)) {
+      BigInteger x = BigInteger.TWO, y = x, d = BigInteger.ONE;
+      while(d.equals(BigInteger.ONE)) {
+        x = x.multiply(x).add(c).mod(n);
+        y = y.multiply(y).add(c).mod(n);
+        y = y.multiply(y).add(c).mod(n);
+        d = x.subtract(y).abs().gcd(n);
+      }
+      if (!d.equals(n))
+        return d;
+    }
+  }
+}
@@ -0,0 +1,180 @@
+package xknr.millerrabin;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Inputs for the JMH benchmarks, made once per trial.
+ *
+ * Every number has exactly bits bits. The kind picks which numbers are kept:
+ *   mixed        every number, as a caller scanning a range would see them.
+ *   primes       primes only, every witness of the tier runs.
+ *   composites   odd composites with no factor <= 47, every one reaches a strong test.
+ *   pseudoprimes strong pseudoprimes to base 2, p(2p - 1) with p = 1 mod 4. Engines whose
+ *                first witness is 2 pass it and reject at a later one. MillerRabinHashed
+ *                tests one hashed base below 2^32 and rejects with it, up to HASHED_LIMIT
+ *                base 2 passes and the hashed base rejects.
+ * The order is sequential (consecutive kept numbers from a random start, pseudoprimes sorted)
+ * or random (independent draws over the whole bit length).
+ */
+final class Inputs
+{
+  static final String MIXED = "mixed", PRIMES = "primes", COMPOSITES = "composites", PSEUDOPRIMES = "pseudoprimes";
+  static final String SEQUENTIAL = "sequential", RANDOM = "random";
+
+  // Same seed in every fork, so runs see the same numbers.
+  static final long SEED = 20_240_601L;
+
+  // 47#, every prime up to 47 divides it.
+  private static final long PRIMORIAL = 614_889_782_588_491_410L;
+  private static final BigInteger B_PRIMORIAL = BigInteger.valueOf(PRIMORIAL);
+
+  private static final int MAX_TRIES = 10_000_000;
+
+  private Inputs() {
+  }
+
+  static int[] ints(int bits, String kind, String order, int count) {
+    if (bits > 31)
+      throw new IllegalArgumentException("An int has at most 31 bits: " + bits);
+    return Arrays.stream(longs(bits, kind, order, count)).mapToInt(n -> (int)n).toArray();
+  }
+
+  static long[] longs(int bits, String kind, String order, int count) {
+    if (bits < 8 || bits > 63)
+      throw new IllegalArgumentException("bits must be in [8, 63]: " + bits);
+    Random rnd = new Random(SEED);
+    long lo = 1L << (bits - 1);
+    long[] result = new long[count];
+
+    if (kind.equals(PSEUDOPRIMES)) {
+      for(int i = 0; i < count; i++)
+        result[i] = pseudoprime(bits, rnd);
+      if (order.equals(SEQUENTIAL))
+        Arrays.sort(result);
+      return result;
+    }
+
+    boolean sequential = sequential(order);
+    // Leave room for the walk, the gap to the next kept number is small against lo.
+    long n = lo + Math.floorMod(rnd.nextLong(), lo / 2);
+    for(int i = 0, tries = 0; i < count; tries++) {
+      if (tries == MAX_TRIES)
+        throw new IllegalStateException(String.format("Not enough %s with %d bits", kind, bits));
+      n = sequential ? n + 1 : lo + Math.floorMod(rnd.nextLong(), lo);
+      if (keep(n, kind))
+        result[i++] = n;
+    }
+    return result;
+  }
+
+  static BigInteger[] bigs(int bits, String kind, String order, int count) {
+    if (bits < 8)
+      throw new IllegalArgumentException("bits must be at least 8: " + bits);
+    Random rnd = new Random(SEED);
+    BigInteger[] result = new BigInteger[count];
+
+    if (kind.equals(PSEUDOPRIMES)) {
+      for(int i = 0; i < count; i++)
+        result[i] = bigPseudoprime(bits, rnd);
+      if (order.equals(SEQUENTIAL))
+        Arrays.sort(result);
+      return result;
+    }
+
+    boolean sequential = sequential(order);
+    BigInteger n = random(bits - 1, rnd).setBit(bits - 1);
+    for(int i = 0, tries = 0; i < count; tries++) {
+      if (tries == MAX_TRIES)
+        throw new IllegalStateException(String.format("Not enough %s with %d bits", kind, bits));
+      if (kind.equals(PRIMES)) {
+        // Large primes are rare, let the sieve in nextPrime skip the gaps.
+        n = sequential ? Primality.nextPrime(n) : Primality.nextPrime(random(bits - 1, rnd).setBit(bits - 1));
+        if (n.bitLength() == bits)
+          result[i++] = n;
+        continue;
+      }
+      n = sequential ? n.add(BigInteger.ONE) : random(bits - 1, rnd).setBit(bits - 1);
+      if (keep(n, kind))
+        result[i++] = n;
+    }
+    return result;
+  }
+
+  private static boolean sequential(String order) {
+    switch(order) {
+      case SEQUENTIAL: return true;
+      case RANDOM: return false;
+      default: throw new IllegalArgumentException("Unknown order: " + order);
+    }
+  }
+
+  private static boolean keep(long n, String kind) {
+    switch(kind) {
+      case MIXED: return true;
+      case PRIMES: return Primality.isPrime(n);
+      case COMPOSITES: return (n & 1) != 0 && !hasSmallFactor(n % PRIMORIAL) && !Primality.isPrime(n);
+      default: throw new IllegalArgumentException("Unknown kind: " + kind);
+    }
+  }
+
+  private static boolean keep(BigInteger n, String kind) {
+    switch(kind) {
+      case MIXED: return true;
+      case COMPOSITES:
+        return n.testBit(0) && !hasSmallFactor(n.mod(B_PRIMORIAL).longValue()) && !Primality.isPrime(n);
+      default: throw new IllegalArgumentException("Unknown kind: " + kind);
+    }
+  }
+
+  /**
+   * A factor <= 47, for r = n mod 47#.
+   */
+  private static boolean hasSmallFactor(long r) {
+    return SmallPrimeFilter.check(r + PRIMORIAL) == SmallPrimeFilter.COMPOSITE;
+  }
+
+  /**
+   * n = p(2p - 1) with bits bits, p and q = 2p - 1 prime, p = 1 mod 4, strong pseudoprime to base 2.
+   * q = 1 mod 8 makes 2 a square mod q, so the order of 2 mod q divides p - 1,
+   * which divides n - 1 = (p - 1)(2p + 1). About half of these are strong pseudoprimes.
+   */
+  private static long pseudoprime(int bits, Random rnd) {
+    // 2p^2 > n >= 2^(bits - 1) gives p >= 2^((bits - 2) / 2).
+    long pLo = (long)Math.ceil(Math.sqrt(Math.scalb(1.0, bits - 2)));
+    long pHi = (long)Math.sqrt(Math.scalb(1.0, bits - 1));
+    for(int tries = 0; tries < MAX_TRIES; tries++) {
+      long p = (pLo + Math.floorMod(rnd.nextLong(), pHi - pLo)) & ~3L | 1L;
+      long n = p * (2 * p - 1);
+      if (64 - Long.numberOfLeadingZeros(n) != bits)
+        continue;
+      if (Primality.isPrime(p) && Primality.isPrime(2 * p - 1) && MillerRabin64Montgomery.tryWitness(2, n))
+        return n;
+    }
+    throw new IllegalStateException("No strong pseudoprime with " + bits + " bits found");
+  }
+
+  private static BigInteger bigPseudoprime(int bits, Random rnd) {
+    if (bits < 64)
+      return BigInteger.valueOf(pseudoprime(bits, rnd));
+    for(int tries = 0; tries < MAX_TRIES; tries++) {
+      BigInteger p = random(bits / 2, rnd).setBit(bits / 2 - 1).shiftRight(2).shiftLeft(2).setBit(0);
+      BigInteger q = p.shiftLeft(1).subtract(BigInteger.ONE);
+      BigInteger n = p.multiply(q);
+      if (n.bitLength() != bits)
+        continue;
+      if (!Primality.isPrime(p) || !Primality.isPrime(q))
+        continue;
+      BigInteger n1 = n.subtract(BigInteger.ONE);
+      int k = n1.getLowestSetBit();
+      if (MillerRabinBig.tryWitness(BigInteger.TWO, n1.shiftRight(k), n, k))
+        return n;
+    }
+    throw new IllegalStateException("No strong pseudoprime with " + bits + " bits found");
+  }
+
+  private static BigInteger random(int bits, Random rnd) {
+    return new BigInteger(bits, rnd);
+  }
+}
@@ -0,0 +1,115 @@
+package xknr.millerrabin;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Engines for n < 2^31, on int[] inputs. Scores are per number tested.
+ * See Inputs for the kinds and orders.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class IntEngineBenchmark
+{
+  static final int COUNT = 1024;
+
+  @Param({"24", "31"})
+  public int bits;
+
+  @Param({"mixed", "primes", "composites", "pseudoprimes"})
+  public String kind;
+
+  @Param({"sequential", "random"})
+  public String order;
+
+  private final MillerRabin32 mr32 = new MillerRabin32();
+  private final MillerRabin64Limited mr64lim = new MillerRabin64Limited();
+  private final MillerRabin64 mr64 = new MillerRabin64();
+  private final MillerRabin64Montgomery mr64mont = new MillerRabin64Montgomery();
+  private final MillerRabinHashed mrhashed = new MillerRabinHashed();
+
+  private int[] nums;
+  private long[] outBits;
+
+  @Setup
+  public void setup() {
+    nums = Inputs.ints(bits, kind, order, COUNT);
+    outBits = new long[(COUNT + 63) >>> 6];
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(COUNT)
+  public int mr32() {
+    int primes = 0;
+    for(int n : nums)
+      if (mr32.isPrime(n))
+        primes++;
+    return primes;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(COUNT)
+  public int mr64lim() {
+    int primes = 0;
+    for(int n : nums)
+      if (mr64lim.isPrime(n))
+        primes++;
+    return primes;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(COUNT)
+  public int mr64() {
+    int primes = 0;
+    for(int n : nums)
+      if (mr64.isPrime(n))
+        primes++;
+    return primes;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(COUNT)
+  public int mr64mont() {
+    int primes = 0;
+    for(int n : nums)
+      if (mr64mont.isPrime(n))
+        primes++;
+    return primes;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(COUNT)
+  public int mrhashed() {
+    int primes = 0;
+    for(int n : nums)
+      if (mrhashed.isPrime(n))
+        primes++;
+    return primes;
+  }
+
+  /**
+   * Primality.isPrime(int[], ...), MillerRabin32Vector on all lanes.
+   */
+  @Benchmark
+  @OperationsPerInvocation(COUNT)
+  public long vector() {
+    Primality.isPrime(nums, 0, COUNT, outBits);
+    return outBits[0];
+  }
+}
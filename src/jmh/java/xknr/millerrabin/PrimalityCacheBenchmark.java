@@ -0,0 +1,74 @@
+package xknr.millerrabin;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * PrimalityCache against Primality.isPrime(long) on a skewed stream of 62 bit numbers:
+ * value i of a pool of distinct numbers is asked with probability about proportional to
+ * i^(-3/4), so a few values make up most calls. Scores are per call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class PrimalityCacheBenchmark
+{
+  static final int COUNT = 1 << 16;
+
+  // Distinct numbers in the stream.
+  @Param({"1024", "65536", "1048576"})
+  public int distinct;
+
+  // Cache size.
+  @Param({"1048576"})
+  public long bytes;
+
+  private PrimalityCache cache;
+  private long[] stream;
+
+  @Setup
+  public void setup() {
+    cache = new PrimalityCache(bytes);
+    long[] pool = Inputs.longs(62, "mixed", "random", distinct);
+    Random rnd = new Random(1);
+    stream = new long[COUNT];
+    for(int i = 0; i < COUNT; i++)
+      stream[i] = pool[(int)(Math.pow(rnd.nextDouble(), 4) * distinct)];
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(COUNT)
+  public int cached() {
+    int primes = 0;
+    for(long n : stream)
+      if (cache.isPrime(n))
+        primes++;
+    return primes;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(COUNT)
+  public int direct() {
+    int primes = 0;
+    for(long n : stream)
+      if (Primality.isPrime(n))
+        primes++;
+    return primes;
+  }
+}
@@ -0,0 +1,176 @@
+package xknr.millerrabin;
+
+import java.math.BigInteger;
+
+import static xknr.euler.util.BigInt.*;
+
+/**
+ * Baillie-PSW test for any BigInteger:
+ * one strong test to base 2, then a strong Lucas test with
+ * Selfridge's parameters (D first of 5, -7, 9, -11, ... with (D/n) = -1, P = 1, Q = (1 - D) / 4).
+ *
+ * No composite passing both is known, but unlike the other engines this
+ * is not proven for every n. Primality uses it only at and above LIMIT13,
+ * where no verified witness set exists.
+ *
+ * The Lucas sequences run in MontgomeryLimbs buffers made once per call,
+ * so the steps allocate no BigInteger. The base 2 test does allocate, see strongTest2.
+ */
+public class BailliePSW
+{
+  // 47#, every prime up to 47 divides it.
+  private static final long PRIMORIAL = 614_889_782_588_491_410L;
+  private static final BigInteger B_PRIMORIAL = B(PRIMORIAL);
+
+  private static final BigInteger B2 = B(2);
+
+  // Check for squares, for which no D exists, after this many tries.
+  private static final int SQUARE_CHECK_TRIES = 5;
+
+  private final MillerRabin64Montgomery mr64mont = new MillerRabin64Montgomery();
+
+  public boolean isPrime(BigInteger n) {
+    // bitLength ignores the sign, a large negative n would reach the tests below.
+    if (n.signum() <= 0)
+      return false;
+    if (n.bitLength() < 63)
+      return mr64mont.isPrime(n.longValue());
+
+    // n > 47, so a factor <= 47 means composite.
+    long r = n.mod(B_PRIMORIAL).longValue();
+    if (SmallPrimeFilter.check(r + PRIMORIAL) == SmallPrimeFilter.COMPOSITE)
+      return false;
+
+    if (!strongTest2(n))
+      return false;
+
+    return strongLucas(n);
+  }
+
+  /**
+   * Strong test of odd n to base 2, through MillerRabinBig.tryWitness.
+   * modPow allocates a few BigIntegers per call, each of the up to k - 1 squarings after it
+   * allocates two. MontgomeryLimbs would avoid that, but its multiplication is slower than
+   * the intrinsified one of modPow at every size.
+   */
+  static boolean strongTest2(BigInteger n) {
+    BigInteger n1 = n.subtract(B1);
+    int k = n1.getLowestSetBit();
+    return MillerRabinBig.tryWitness(B2, n1.shiftRight(k), n, k);
+  }
+
+  /**
+   * Strong Lucas test of odd n > 47 with Selfridge's parameters.
+   */
+  static boolean strongLucas(BigInteger n) {
+    long d = 5;
+    for(int tries = 1; ; tries++) {
+      int j = jacobi(d, n);
+      if (j == -1)
+        break;
+      if (j == 0)
+        return false; // |D| < n shares a factor with n.
+
+      if (tries == SQUARE_CHECK_TRIES) {
+        BigInteger sqrt = n.sqrt();
+        if (sqrt.multiply(sqrt).equals(n))
+          return false;
+      }
+      d = d > 0 ? -(d + 2) : -d + 2;
+    }
+    long q = (1 - d) / 4;
+
+    MontgomeryLimbs mont = new MontgomeryLimbs(n);
+    long[] dm = mont.toMontgomery(B(d));
+    long[] qm = mont.toMontgomery(B(q));
+
+    // n + 1 = 2^s * e
+    BigInteger np1 = n.add(B1);
+    int s = np1.getLowestSetBit();
+    BigInteger e = np1.shiftRight(s);
+
+    // U_1 = 1, V_1 = P = 1, Q^1.
+    long[] u = mont.toMontgomery(B1);
+    long[] v = u.clone();
+    long[] qk = qm.clone();
+    long[] tmp = mont.newBuffer();
+
+    for(int i = e.bitLength() - 2; i >= 0; i--) {
+      // U_2k = U_k * V_k, V_2k = V_k^2 - 2 Q^k, Q^2k = (Q^k)^2
+      mont.mul(u, v, u);
+      mont.mul(v, v, v);
+      mont.sub(v, qk, v);
+      mont.sub(v, qk, v);
+      mont.mul(qk, qk, qk);
+
+      if (e.testBit(i)) {
+        // U_k+1 = (P U_k + V_k) / 2, V_k+1 = (D U_k + P V_k) / 2, Q^k+1 = Q^k * Q
+        mont.mul(dm, u, tmp);
+        mont.add(u, v, u);
+        mont.half(u, u);
+        mont.add(tmp, v, v);
+        mont.half(v, v);
+        mont.mul(qk, qm, qk);
+      }
+    }
+
+    if (MontgomeryLimbs.isZero(u))
+      return true;
+
+    for(int r = 0; r < s; r++) {
+      if (MontgomeryLimbs.isZero(v))
+        return true;
+      if (r == s - 1)
+        break;
+      // V_2k = V_k^2 - 2 Q^k
+      mont.mul(v, v, v);
+      mont.sub(v, qk, v);
+      mont.sub(v, qk, v);
+      mont.mul(qk, qk, qk);
+    }
+
+    return false;
+  }
+
+  /**
+   * Jacobi symbol (d / n) for odd d, odd n > |d|.
+   */
+  static int jacobi(long d, BigInteger n) {
+    int sign = 1;
+    if (d < 0) {
+      d = -d;
+      // (-1 / n) = -1 iff n = 3 mod 4
+      if (n.testBit(1))
+        sign = -sign;
+    }
+    // Reciprocity, both odd.
+    if ((d & 3) == 3 && n.testBit(1))
+      sign = -sign;
+    return sign * jacobi(n.mod(B(d)).longValue(), d);
+  }
+
+  /**
+   * Jacobi symbol (a / n) for odd n > 0.
+   */
+  static int jacobi(long a, long n) {
+    a %= n;
+    if (a < 0)
+      a += n;
+    int result = 1;
+    while(a != 0) {
+      while((a & 1) == 0) {
+        a >>= 1;
+        long r = n & 7;
+        if (r == 3 || r == 5)
+          result = -result;
+      }
+      long t = a;
+      a = n;
+      n = t;
+      if ((a & 3) == 3 && (n & 3) == 3)
+        result = -result;
+      a %= n;
+    }
+    return n == 1 ? result : 0;
+  }
+}
@@ -3,13 +3,23 @@ package xknr.millerrabin;
 import static xknr.euler.util.BigInt.*;
 
 import java.math.BigInteger;
+import java.util.Random;
 import java.util.function.Predicate;
 
 /**
- * MillerRabin32 is best when n < 2^31
- * MillerRabin64Limited is best when n < 3_037_001_057L
- * MillerRabin64 is best for n < 2^32
- * Above that, MillerRabinBig is faster. 
+ * A quick check of every engine against the others on a few ranges, with the time each takes there.
+ *
+ * MillerRabin32 covers ints, MillerRabin64Limited n < ARG_LIMIT, MillerRabin64 and
+ * MillerRabin64Montgomery every long. MillerRabinHashed takes one hashed base below 2^32,
+ * base 2 and one hashed base up to HASHED_LIMIT, MillerRabin64Montgomery above; Primality
+ * uses it for every long below HASHED_LIMIT that its prime table does not cover.
+ * MillerRabin128 and MillerRabinBig take larger n, BailliePSW takes over at LIMIT13,
+ * it is compared to isProbablePrime on random numbers of fixed size.
+ *
+ * The times here are no ranking of the engines. The loop counts with a BigInteger and calls
+ * every engine through a Predicate, which costs about as much as the small engines themselves.
+ * The JMH benchmarks in src/jmh (./gradlew runJmh) test primitive inputs per engine and bit
+ * length, their results in build/jmh/results.json are the ones to compare engines by.
  */
 public class Benchmark 
 {
@@ -18,7 +28,11 @@ public class Benchmark
   private MillerRabin32 mr32 = new MillerRabin32();     
   private MillerRabin64Limited mr64lim = new MillerRabin64Limited();
   private MillerRabin64 mr64 = new MillerRabin64();
+  private MillerRabin64Montgomery mr64mont = new MillerRabin64Montgomery();
+  private MillerRabinHashed mrhashed = new MillerRabinHashed();
   private MillerRabinBig mrbig = new MillerRabinBig();
+  private MillerRabin128 mr128 = new MillerRabin128();
+  private BailliePSW bpsw = new BailliePSW();
 
   public static void main(String[] args) {
       BigInteger beg1 = B0;
@@ -47,6 +61,10 @@ public class Benchmark
       bench.benchmarkGeneric("Benchmark 3 b", beg3b, lim3b, true);
       bench.benchmarkGeneric("Benchmark 4", beg4, lim4, true);
       bench.benchmarkGeneric("Benchmark 5", beg5, lim5, true);
+
+      bench.benchmarkBits("Benchmark 6", 128, 2000);
+      bench.benchmarkBits("Benchmark 7", 512, 200);
+      bench.benchmarkBits("Benchmark 8", 2048, 20);
   }
   
   public void benchmarkGeneric(String name, BigInteger beg, BigInteger limit, boolean doProb) {
@@ -58,12 +76,15 @@ public class Benchmark
       //System.out.format("verify long (%d %d)\n", beg, l);
       verifyRange(beg, l, i -> mr64.isPrime(i.longValueExact()), i -> mrbig.isPrime(i));
       verifyRange(beg, l, i -> mr64.isPrime(i.longValueExact()), i -> i.isProbablePrime(CERT));
+      verifyRange(beg, l, i -> mr64mont.isPrime(i.longValueExact()), i -> mr64.isPrime(i.longValueExact()));
+      verifyRange(beg, l, i -> mrhashed.isPrime(i.longValueExact()), i -> mr64.isPrime(i.longValueExact()));
     }
 
     if (limit.compareTo(B(Long.MAX_VALUE)) > 0) {
       BigInteger b = beg.max(B(Long.MAX_VALUE).add(B1));      
       //System.out.format("verify big  (%d %d)\n", b, limit);
       verifyRange(b, limit, i -> mrbig.isPrime(i), i -> i.isProbablePrime(CERT));
+      verifyRange(b, limit, i -> mr128.isPrime(i), i -> mrbig.isPrime(i));
     }
 
     if (limit.compareTo(B(MillerRabin32.ARG_LIMIT)) <= 0) {
@@ -76,10 +97,13 @@ public class Benchmark
     
     if (limit.compareTo(B(MillerRabin64.ARG_LIMIT)) <= 0) {
       System.out.format("long with BigInt: %.4f ns/check\n", measure(beg, limit, i -> mr64.isPrime(i.longValueExact())));
+      System.out.format("long Montgomery : %.4f ns/check\n", measure(beg, limit, i -> mr64mont.isPrime(i.longValueExact())));
+      System.out.format("hashed base     : %.4f ns/check\n", measure(beg, limit, i -> mrhashed.isPrime(i.longValueExact())));
     }
 
     if (limit.compareTo(MillerRabinBig.ARG_LIMIT) <= 0) {
       System.out.format("BigInt version  : %.4f ns/check\n", measure(beg, limit, i -> mrbig.isPrime(i)));
+      System.out.format("128 bit version : %.4f ns/check\n", measure(beg, limit, i -> mr128.isPrime(i)));
     }
     
     if (doProb) {
@@ -87,6 +111,33 @@ public class Benchmark
     }
   }
   
+  /**
+   * Compares BailliePSW to isProbablePrime on count random odd numbers and count primes of the given size.
+   * The primes are where both spend the most time, all of their rounds.
+   */
+  public void benchmarkBits(String name, int bits, int count) {
+    int CERT = 20;
+    System.out.format("---\n%s %d bits\n", name, bits);
+
+    Random rnd = new Random(bits);
+    BigInteger odd[] = new BigInteger[count];
+    BigInteger primes[] = new BigInteger[count];
+    for(int i = 0; i < count; i++) {
+      odd[i] = new BigInteger(bits, rnd).setBit(bits - 1).setBit(0);
+      primes[i] = BigInteger.probablePrime(bits, rnd);
+    }
+
+    for(BigInteger n : odd)
+      verify(bpsw.isPrime(n), n.isProbablePrime(CERT));
+    for(BigInteger n : primes)
+      verify(bpsw.isPrime(n), true);
+
+    System.out.format("Baillie-PSW odd      : %.1f ns/check\n", measure(odd, i -> bpsw.isPrime(i)));
+    System.out.format("isProbablePrime odd  : %.1f ns/check\n", measure(odd, i -> i.isProbablePrime(CERT)));
+    System.out.format("Baillie-PSW prime    : %.1f ns/check\n", measure(primes, i -> bpsw.isPrime(i)));
+    System.out.format("isProbablePrime prime: %.1f ns/check\n", measure(primes, i -> i.isProbablePrime(CERT)));
+  }
+
   /**
    * Verify that the given two primality check functions give the same results for all numbers in the given range.
    * @param beg the start of the range
@@ -152,5 +203,33 @@ public class Benchmark
     return result;
   }
 
+  /**
+   * Same as measure over a range, for the given numbers.
+   */
+  private double measure(BigInteger nums[], Predicate<BigInteger> isPrime) {
+    double result = 0;
+    long start = System.nanoTime();
+
+    long MILLISECOND_IN_NANOS = 1000_000L;
+
+    int it;
+    for(it = 1; ; ++it) {
+      for(BigInteger n : nums) {
+        boolean testResult = isPrime.test(n);
+        dummyResult += testResult ? 1 : 0; // Consume result.
+      }
+
+      result = System.nanoTime() - start;
+      if (it > 1 && result > 250 * MILLISECOND_IN_NANOS) {
+        break;
+      }        
+    }
+
+    result /= it;
+    result /= nums.length;
+
+    return result;
+  }
+
 }
 
@@ -0,0 +1,86 @@
+package xknr.millerrabin;
+
+import java.util.Arrays;
+
+/**
+ * Sieve of a window of odd candidates start, start + 2, ... by a list of odd primes,
+ * given start modulo each of them. Shared by NextPrime and RandomPrime, which differ
+ * in how they get the residues.
+ *
+ * The primes are also split into groups of consecutive primes whose product fits
+ * in a long, so a BigInteger start is reduced once per group, not once per prime.
+ */
+final class CandidateSieve
+{
+  final int[] primes;
+  // Product of the primes of each group, and the index in primes after each group.
+  final long[] groupProducts;
+  final int[] groupEnds;
+
+  /**
+   * primes are odd and ascending.
+   */
+  CandidateSieve(int[] primes) {
+    this.primes = primes;
+    int groups = 0;
+    long[] products = new long[primes.length];
+    int[] ends = new int[primes.length];
+    long product = 1;
+    for(int i = 0; i < primes.length; i++) {
+      if (product > Long.MAX_VALUE / primes[i]) {
+        products[groups] = product;
+        ends[groups++] = i;
+        product = 1;
+      }
+      product *= primes[i];
+    }
+    products[groups] = product;
+    ends[groups++] = primes.length;
+    this.groupProducts = Arrays.copyOf(products, groups);
+    this.groupEnds = Arrays.copyOf(ends, groups);
+  }
+
+  /**
+   * Number of primes below limit.
+   */
+  int countBelow(int limit) {
+    int count = 0;
+    while(count < primes.length && primes[count] < limit)
+      count++;
+    return count;
+  }
+
+  /**
+   * Bit i of bits is set iff start + 2i has no factor among the first residues.length primes,
+   * for odd start and i < count. residues[j] is start mod primes[j]. smallStart is start if it
+   * is below the largest of these primes, then sieving primes in the window are kept, else 0.
+   * Bits from count on are left set.
+   */
+  void sieve(int[] residues, long smallStart, long[] bits, int count) {
+    Arrays.fill(bits, 0, (count + 63) >>> 6, -1L);
+    for(int j = 0; j < residues.length; j++) {
+      int p = primes[j];
+      // start + 2i == 0 mod p for 2i == p - r mod p, where p - r or 2p - r is even.
+      int r = residues[j];
+      int i = r == 0 ? 0 : ((r & 1) != 0 ? p - r : 2 * p - r) >>> 1;
+      if (smallStart != 0 && smallStart + 2 * i == p)
+        i += p;
+      for(; i < count; i += p)
+        bits[i >>> 6] &= ~(1L << i);
+    }
+  }
+
+  static int nextSetBit(long[] bits, int from, int count) {
+    for(int i = from; i < count; i++)
+      if ((bits[i >>> 6] & (1L << i)) != 0)
+        return i;
+    return -1;
+  }
+
+  static int prevSetBit(long[] bits, int from) {
+    for(int i = from; i >= 0; i--)
+      if ((bits[i >>> 6] & (1L << i)) != 0)
+        return i;
+    return -1;
+  }
+}
@@ -0,0 +1,111 @@
+package xknr.millerrabin;
+
+import java.util.Arrays;
+
+/**
+ * Exact reference for exhaustive runs up to 2^63: a sieve of one chunk at a time.
+ *
+ * The odd primes up to sqrt(last) are kept once, as a bitmap of odd numbers
+ * (about 190 MB near 2^63, 6 KB for 10^10), and shared by all threads.
+ * Each thread sieves its own chunk into a Window, a bitmap of the odd numbers
+ * in the chunk. A number left in the window has no factor up to sqrt(last),
+ * so it is prime, without any strong test.
+ *
+ * Every chunk divides once per base prime. Near 2^63 there are about
+ * 146M of them, so chunks there should be much longer than the default.
+ */
+final class ChunkSieve
+{
+  // Bit i is set iff 2i + 1 is composite (or 1), for 2i + 1 <= baseLimit.
+  private final long[] composite;
+  private final long baseLimit;
+
+  /**
+   * A sieve able to decide every n <= last.
+   */
+  ChunkSieve(long last) {
+    this.baseLimit = SegmentedSieve.isqrt(last);
+    long bits = baseLimit / 2 + 1;
+    this.composite = new long[(int)((bits + 63) >>> 6)];
+    composite[0] |= 1L; // 1
+    for(long p = 3; p * p <= baseLimit; p += 2) {
+      if (isSet(composite, p >>> 1))
+        continue;
+      for(long q = p * p; q <= baseLimit; q += 2 * p)
+        composite[(int)(q >>> 7)] |= 1L << (q >>> 1);
+    }
+  }
+
+  long baseLimit() {
+    return baseLimit;
+  }
+
+  Window newWindow() {
+    return new Window();
+  }
+
+  private static boolean isSet(long[] bits, long i) {
+    return (bits[(int)(i >>> 6)] & (1L << i)) != 0;
+  }
+
+  /**
+   * The primes of one chunk, for one thread. Reused from chunk to chunk.
+   */
+  final class Window
+  {
+    // Bit j is set iff first + 2j is composite, first is odd.
+    private long[] bits = new long[0];
+    private long first;
+    private long last;
+
+    /**
+     * Sieves [lo, last], 0 <= lo <= last, last not above the limit of the ChunkSieve.
+     */
+    void sieve(long lo, long last) {
+      this.first = lo | 1;
+      this.last = last;
+      if (first > last)
+        return;
+      // Odd numbers in [first, last].
+      long span = (last - first) / 2 + 1;
+      int words = (int)((span + 63) >>> 6);
+      if (bits.length < words)
+        bits = new long[words];
+      else
+        Arrays.fill(bits, 0, words, 0L);
+
+      for(long i = 1; ; i++) {
+        long p = 2 * i + 1;
+        if (p > baseLimit || p > last / p)
+          break;
+        if (isSet(composite, i))
+          continue;
+        // Offset from first of the first odd multiple of p, not below p^2.
+        long off;
+        if (p * p >= first) {
+          off = p * p - first;
+        } else {
+          long r = first % p;
+          off = r == 0 ? 0 : p - r;
+          if ((off & 1) != 0)
+            off += p;
+        }
+        for(long j = off >>> 1; j < span; j += p)
+          bits[(int)(j >>> 6)] |= 1L << j;
+      }
+    }
+
+    /**
+     * n in the last sieved chunk.
+     */
+    boolean isPrime(long n) {
+      if (n < 3)
+        return n == 2;
+      if ((n & 1) == 0)
+        return false;
+      if (n < first || n > last)
+        throw new IllegalArgumentException(String.format("%d not in [%d, %d]", n, first, last));
+      return !isSet(bits, (n - first) >>> 1);
+    }
+  }
+}
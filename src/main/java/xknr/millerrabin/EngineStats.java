@@ -0,0 +1,218 @@
+package xknr.millerrabin;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Optional counters of which witness tier each call took and how it ended:
+ * decided by the small prime prefilter, rejected by witness k of the tier, or proven prime.
+ * One instance per engine class, all of them listed by all().
+ *
+ * Off unless the JVM runs with -Dxknr.millerrabin.stats=true. ENABLED is a static final,
+ * so when it is false the JIT drops every hook and the engines run as before.
+ * When on, counters are LongAdders, which stripe under contention instead of
+ * bouncing one cache line between threads. One call in SAMPLE_EVERY per thread
+ * also records a PrimalityTestEvent with bit length and duration, if a JFR recording
+ * has the event enabled.
+ */
+public final class EngineStats
+{
+  public static final boolean ENABLED = Boolean.getBoolean("xknr.millerrabin.stats");
+  public static final int SAMPLE_EVERY = Integer.getInteger("xknr.millerrabin.stats.sample", 1024);
+
+  // Largest witness set, the first 13 primes.
+  static final int MAX_WITNESSES = 13;
+
+  /**
+   * Witness sets of the engines, and the engines Primality hands a call to.
+   */
+  public enum Tier
+  {
+    FIRST_1("{2}"),
+    FIRST_2("{2, 3}"),
+    SPECIAL1("{2, 7, 61}"),
+    FIRST_5("first 5 primes"),
+    FIRST_6("first 6 primes"),
+    SPECIAL2("special set 2, 7 bases"),
+    FIRST_12("first 12 primes"),
+    FIRST_13("first 13 primes"),
+    TABLE("MappedPrimeTable"),
+    HASHED("MillerRabinHashed"),
+    MONTGOMERY("MillerRabin64Montgomery"),
+    MR128("MillerRabin128"),
+    BAILLIE_PSW("BailliePSW"),
+    PLAN("custom WitnessPlan");
+
+    public final String label;
+
+    Tier(String label) {
+      this.label = label;
+    }
+  }
+
+  private static final List<EngineStats> all = new CopyOnWriteArrayList<>();
+
+  public final String engine;
+
+  private final LongAdder smallFactor = new LongAdder();
+  private final LongAdder smallPrime = new LongAdder();
+  private final LongAdder[] calls = adders(Tier.values().length);
+  private final LongAdder[] primes = adders(Tier.values().length);
+  private final LongAdder[][] rejected = new LongAdder[Tier.values().length][];
+
+  EngineStats(String engine) {
+    this.engine = engine;
+    for(int t = 0; t < rejected.length; t++)
+      rejected[t] = adders(MAX_WITNESSES);
+    all.add(this);
+  }
+
+  /**
+   * Stats of every instrumented engine loaded so far.
+   */
+  public static List<EngineStats> all() {
+    return List.copyOf(all);
+  }
+
+  // Hooks, called by the engines. Each is empty when ENABLED is false.
+
+  /**
+   * Decided by the prefilter or by trial division by a witness.
+   */
+  void small(boolean prime) {
+    if (ENABLED)
+      (prime ? smallPrime : smallFactor).increment();
+  }
+
+  void tier(Tier tier) {
+    if (ENABLED)
+      calls[tier.ordinal()].increment();
+  }
+
+  /**
+   * Witness number k (from 0) of tier proved n composite.
+   * Witnesses after the 13th of a custom plan count as the 13th.
+   */
+  void rejected(Tier tier, int k) {
+    if (ENABLED)
+      rejected[tier.ordinal()][Math.min(k, MAX_WITNESSES - 1)].increment();
+  }
+
+  void prime(Tier tier) {
+    if (ENABLED)
+      primes[tier.ordinal()].increment();
+  }
+
+  /**
+   * A started event if this call is sampled and JFR records the event, else null.
+   */
+  PrimalityTestEvent begin() {
+    if (!ENABLED || ThreadLocalRandom.current().nextInt(SAMPLE_EVERY) != 0)
+      return null;
+    PrimalityTestEvent event = new PrimalityTestEvent();
+    if (!event.isEnabled())
+      return null;
+    event.begin();
+    return event;
+  }
+
+  void end(PrimalityTestEvent event, int bits, boolean prime) {
+    if (event == null)
+      return;
+    event.end();
+    if (event.shouldCommit()) {
+      event.engine = engine;
+      event.bits = bits;
+      event.prime = prime;
+      event.commit();
+    }
+  }
+
+  // Readers.
+
+  public long smallFactors() {
+    return smallFactor.sum();
+  }
+
+  public long smallPrimes() {
+    return smallPrime.sum();
+  }
+
+  public long calls(Tier tier) {
+    return calls[tier.ordinal()].sum();
+  }
+
+  public long primes(Tier tier) {
+    return primes[tier.ordinal()].sum();
+  }
+
+  public long rejections(Tier tier, int k) {
+    return rejected[tier.ordinal()][k].sum();
+  }
+
+  public void reset() {
+    smallFactor.reset();
+    smallPrime.reset();
+    for(Tier tier : Tier.values()) {
+      calls[tier.ordinal()].reset();
+      primes[tier.ordinal()].reset();
+      for(LongAdder a : rejected[tier.ordinal()])
+        a.reset();
+    }
+  }
+
+  /**
+   * One line per tier that was used.
+   */
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append(String.format("%s: small factor %d, small prime %d%n", engine, smallFactors(), smallPrimes()));
+    for(Tier tier : Tier.values()) {
+      long n = calls(tier);
+      if (n == 0)
+        continue;
+      sb.append(String.format("  %-28s %12d calls %12d prime", tier.label, n, primes(tier)));
+      for(int k = 0; k < MAX_WITNESSES; k++) {
+        long r = rejections(tier, k);
+        if (r != 0)
+          sb.append(String.format(", witness %d rejected %d", k, r));
+      }
+      sb.append(System.lineSeparator());
+    }
+    return sb.toString();
+  }
+
+  private static LongAdder[] adders(int count) {
+    LongAdder[] result = new LongAdder[count];
+    for(int i = 0; i < count; i++)
+      result[i] = new LongAdder();
+    return result;
+  }
+
+  @Name("xknr.millerrabin.PrimalityTest")
+  @Label("Primality Test")
+  @Category("Miller-Rabin")
+  @Description("A sampled isPrime call")
+  @StackTrace(false)
+  static final class PrimalityTestEvent extends Event
+  {
+    @Label("Engine")
+    String engine;
+
+    @Label("Bit Length")
+    int bits;
+
+    @Label("Prime")
+    boolean prime;
+  }
+}
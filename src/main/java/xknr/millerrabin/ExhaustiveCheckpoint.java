@@ -0,0 +1,102 @@
+package xknr.millerrabin;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Completed chunks of an exhaustive run, so that a restarted run skips them.
+ *
+ * The file starts with a header line naming the engine, range and chunk size,
+ * followed by one "start end" line per completed chunk. Each line is written by
+ * one append to a file opened with APPEND and forced to disk, so a crash leaves
+ * at most a torn last line. It is ignored on load, and ended with " torn" on reopen.
+ */
+final class ExhaustiveCheckpoint implements AutoCloseable
+{
+  private final Set<BigInteger> done = new HashSet<>();
+  private final FileChannel channel;
+  private BigInteger doneCount = BigInteger.ZERO;
+
+  /**
+   * Opens file, or creates it with header.
+   * @throws IllegalStateException if file has another header, i.e. it belongs to another run
+   */
+  ExhaustiveCheckpoint(Path file, String header) throws IOException {
+    if (Files.exists(file)) {
+      List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+      if (!lines.isEmpty() && !lines.get(0).equals(header))
+        throw new IllegalStateException(String.format(
+          "Checkpoint %s belongs to another run: %s", file, lines.get(0)));
+      boolean torn = !endsWithNewline(file);
+      // A torn line may still read as two numbers, e.g. "40 5" of "40 50".
+      int complete = torn ? lines.size() - 1 : lines.size();
+      for(String line : lines.subList(Math.min(1, complete), complete)) {
+        String[] parts = line.trim().split(" ");
+        if (parts.length != 2)
+          continue;
+        try {
+          BigInteger start = new BigInteger(parts[0]), end = new BigInteger(parts[1]);
+          if (done.add(start))
+            doneCount = doneCount.add(end.subtract(start));
+        } catch(NumberFormatException e) {
+          // Not a chunk line.
+        }
+      }
+      channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+      if (lines.isEmpty()) {
+        append(header);
+      } else if (torn) {
+        // Ends the torn line, so the next append does not extend it, and marks it
+        // so that later loads skip it too.
+        append(" torn");
+      }
+    } else {
+      channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+        StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+      append(header);
+    }
+  }
+
+  boolean isDone(BigInteger start) {
+    return done.contains(start);
+  }
+
+  /**
+   * Numbers in the chunks completed by earlier runs.
+   */
+  BigInteger doneCount() {
+    return doneCount;
+  }
+
+  void completed(BigInteger start, BigInteger end) throws IOException {
+    append(start + " " + end);
+  }
+
+  private synchronized void append(String line) throws IOException {
+    ByteBuffer buf = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8));
+    while(buf.hasRemaining())
+      channel.write(buf);
+    channel.force(false);
+  }
+
+  private static boolean endsWithNewline(Path file) throws IOException {
+    try(FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+      ByteBuffer last = ByteBuffer.allocate(1);
+      return in.size() == 0 || (in.read(last, in.size() - 1) == 1 && last.get(0) == '\n');
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+}
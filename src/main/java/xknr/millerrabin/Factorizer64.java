@@ -0,0 +1,178 @@
+package xknr.millerrabin;
+
+import java.util.Arrays;
+
+import static xknr.millerrabin.MillerRabin64Montgomery.inverse;
+import static xknr.millerrabin.MillerRabin64Montgomery.montMul;
+
+/**
+ * Prime factorization of longs, without allocation: factors go into a long[] of the caller.
+ *
+ * Factors below TRIAL_LIMIT are removed by trial division, done as a multiplication by
+ * the inverse of p mod 2^64: n is a multiple of p iff n * p^-1 <= (2^64 - 1) / p, unsigned,
+ * and then n * p^-1 is the quotient. A cofactor below TRIAL_LIMIT^2 is then prime.
+ * Larger cofactors are tested with Primality.isPrime and composite ones split by
+ * Pollard-Brent rho in Montgomery form (MillerRabin64Montgomery.montMul), taking one
+ * gcd per BATCH steps. Composites waiting to be split are kept at the end of out, so
+ * out has to have room for every prime factor with multiplicity; MAX_FACTORS fits any long.
+ *
+ * Holds no mutable state, one instance can be shared between threads.
+ */
+public final class Factorizer64
+{
+  // 2^62 has the most prime factors of any positive long.
+  public static final int MAX_FACTORS = 62;
+
+  static final int TRIAL_LIMIT = 1 << 10;
+  private static final long TRIAL_LIMIT_SQ = (long)TRIAL_LIMIT * TRIAL_LIMIT;
+
+  // Steps of rho between two gcds.
+  private static final int BATCH = 128;
+
+  // Odd primes below TRIAL_LIMIT, their inverses mod 2^64 and (2^64 - 1) / p.
+  private static final int[] PRIMES = Arrays.stream(SegmentedSieve.basePrimes(TRIAL_LIMIT))
+    .filter(p -> p < TRIAL_LIMIT).toArray();
+  private static final long[] INVERSES = new long[PRIMES.length];
+  private static final long[] QUOTIENT_LIMITS = new long[PRIMES.length];
+
+  static {
+    for(int i = 0; i < PRIMES.length; i++) {
+      INVERSES[i] = inverse(PRIMES[i]);
+      QUOTIENT_LIMITS[i] = Long.divideUnsigned(-1L, PRIMES[i]);
+    }
+  }
+
+  /**
+   * Writes the prime factors of n >= 1 into out[0], ..., out[count - 1] in increasing order,
+   * with multiplicity, and returns count. 1 has no factors.
+   * @throws IllegalArgumentException if n < 1, or if out has less room than n has prime factors
+   */
+  public int factor(long n, long[] out) {
+    if (n < 1)
+      throw new IllegalArgumentException("n < 1: " + n);
+    int count = 0;
+
+    int twos = Long.numberOfTrailingZeros(n);
+    for(int i = 0; i < twos; i++)
+      count = add(out, count, out.length, 2);
+    long m = n >>> twos;
+
+    for(int i = 0; i < PRIMES.length; i++) {
+      long p = PRIMES[i];
+      if (p * p > m)
+        break;
+      long q;
+      while(Long.compareUnsigned(q = m * INVERSES[i], QUOTIENT_LIMITS[i]) <= 0) {
+        count = add(out, count, out.length, p);
+        m = q;
+      }
+    }
+
+    // Composites to split, stacked down from the end of out.
+    int top = out.length;
+    if (m > 1) {
+      if (top == count)
+        throw tooShort(out);
+      out[--top] = m;
+    }
+    while(top < out.length) {
+      long c = out[top++];
+      if (c < TRIAL_LIMIT_SQ || Primality.isPrime(c)) {
+        count = add(out, count, top, c);
+        continue;
+      }
+      long d = split(c);
+      if (top - count < 2)
+        throw tooShort(out);
+      out[--top] = d;
+      out[--top] = c / d;
+    }
+
+    Arrays.sort(out, 0, count);
+    return count;
+  }
+
+  private static int add(long[] out, int count, int top, long p) {
+    if (count == top)
+      throw tooShort(out);
+    out[count] = p;
+    return count + 1;
+  }
+
+  private static IllegalArgumentException tooShort(long[] out) {
+    return new IllegalArgumentException(String.format("out has room for %d factors only", out.length));
+  }
+
+  /**
+   * A factor 1 < d < n of odd composite n without factors below TRIAL_LIMIT.
+   */
+  static long split(long n) {
+    long s = SegmentedSieve.isqrt(n);
+    // Rho is slow on squares of primes, where the cycles mod p and mod n meet.
+    if (s * s == n)
+      return s;
+    long nInv = inverse(n);
+    for(long c = 1; ; c++) {
+      long d = rho(n, nInv, c);
+      if (d != n)
+        return d;
+    }
+  }
+
+  /**
+   * Pollard-Brent rho with y -> y^2 + c in Montgomery form.
+   * A factor of n, or n if this c failed.
+   */
+  private static long rho(long n, long nInv, long c) {
+    long y = 2, x = y, ys = y;
+    long q = Long.remainderUnsigned(-n, n); // 1 in Montgomery form
+    long g = 1;
+    for(long r = 1; g == 1; r <<= 1) {
+      x = y;
+      for(long i = 0; i < r; i++)
+        y = step(y, n, nInv, c);
+      for(long k = 0; k < r && g == 1; k += BATCH) {
+        ys = y;
+        long steps = Math.min(BATCH, r - k);
+        for(long i = 0; i < steps; i++) {
+          y = step(y, n, nInv, c);
+          q = montMul(q, x > y ? x - y : y - x, n, nInv);
+        }
+        // q is a product of differences times a power of 2^64, coprime to n.
+        g = gcd(q, n);
+      }
+    }
+    if (g == n) {
+      // The batch overshot, redo it one gcd per step.
+      do {
+        ys = step(ys, n, nInv, c);
+        g = gcd(x > ys ? x - ys : ys - x, n);
+      } while(g == 1);
+    }
+    return g;
+  }
+
+  private static long step(long y, long n, long nInv, long c) {
+    long s = montMul(y, y, n, nInv) + c;
+    return Long.compareUnsigned(s, n) >= 0 ? s - n : s;
+  }
+
+  /**
+   * Binary gcd of a >= 0 and odd b > 0.
+   */
+  static long gcd(long a, long b) {
+    if (a == 0)
+      return b;
+    a >>>= Long.numberOfTrailingZeros(a);
+    while(a != b) {
+      if (a > b) {
+        a -= b;
+        a >>>= Long.numberOfTrailingZeros(a);
+      } else {
+        b -= a;
+        b >>>= Long.numberOfTrailingZeros(b);
+      }
+    }
+    return a;
+  }
+}
@@ -0,0 +1,80 @@
+package xknr.millerrabin;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Histogram of durations in nanoseconds for latency percentiles, safe to record into from any thread.
+ *
+ * Buckets are log linear: SUB_BUCKETS per power of two, exact below SUB_BUCKETS.
+ * A percentile is the upper end of its bucket, at most 1 / SUB_BUCKETS above the true value.
+ * Recording is one atomic increment, there is no lock and no allocation.
+ */
+final class LatencyHistogram
+{
+  private static final int SUB_BITS = 3;
+  static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(64 << SUB_BITS);
+  private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+  void record(long nanos) {
+    nanos = Math.max(nanos, 0);
+    counts.incrementAndGet(index(nanos));
+    max.accumulate(nanos);
+  }
+
+  static int index(long v) {
+    if (v < SUB_BUCKETS)
+      return (int)v;
+    int e = 63 - Long.numberOfLeadingZeros(v);
+    int sub = (int)(v >>> (e - SUB_BITS)) & (SUB_BUCKETS - 1);
+    return ((e - SUB_BITS + 1) << SUB_BITS) + sub;
+  }
+
+  /**
+   * Largest value in bucket index.
+   */
+  static long upper(int index) {
+    if (index < SUB_BUCKETS)
+      return index;
+    int shift = (index >>> SUB_BITS) - 1;
+    long sub = index & (SUB_BUCKETS - 1);
+    return ((SUB_BUCKETS + sub + 1) << shift) - 1;
+  }
+
+  long count() {
+    long total = 0;
+    for(int i = 0; i < counts.length(); i++)
+      total += counts.get(i);
+    return total;
+  }
+
+  long max() {
+    return max.get();
+  }
+
+  /**
+   * Smallest bucket bound with a fraction q of the recorded values at or below it, 0 if there are none.
+   */
+  long percentile(double q) {
+    long total = count();
+    if (total == 0)
+      return 0;
+    long rank = Math.max(1, (long)Math.ceil(q * total));
+    long seen = 0;
+    for(int i = 0; i < counts.length(); i++) {
+      seen += counts.get(i);
+      if (seen >= rank)
+        return Math.min(upper(i), max());
+    }
+    return max();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("count %d, p50 %.1f us, p90 %.1f us, p99 %.1f us, p99.9 %.1f us, max %.1f us",
+      count(), percentile(0.5) / 1e3, percentile(0.9) / 1e3, percentile(0.99) / 1e3,
+      percentile(0.999) / 1e3, max() / 1e3);
+  }
+}
@@ -0,0 +1,190 @@
+package xknr.millerrabin;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.LongStream;
+
+/**
+ * Primality of every n below a limit (at most 2^32) as a file mapped into memory, one load per lookup.
+ *
+ * The file is a mod 30 wheel: byte i holds the 8 numbers 30i + r, r in {1, 7, 11, 13, 17, 19, 23, 29},
+ * bit j set iff 30i + r_j is prime. Every other n is divisible by 2, 3 or 5. Up to 2^32 that is
+ * 143 MB, after a 16 byte header (magic, version, limit).
+ *
+ * The map is read only, so the pages come from the page cache: opening is nearly free,
+ * and every JVM on the host mapping the same file shares one copy.
+ *
+ * Usage (./gradlew generatePrimeTable): generate [file] [limit], verify [file].
+ * Primality uses the table for n below its limit if -Dxknr.millerrabin.primeTable=file is set.
+ */
+public final class MappedPrimeTable
+{
+  // "PRMT"
+  private static final int MAGIC = 0x50524D54;
+  private static final int VERSION = 1;
+  private static final int HEADER = 16;
+
+  public static final long MAX_LIMIT = 1L << 32;
+  public static final String PROPERTY = "xknr.millerrabin.primeTable";
+
+  // Bit of n % 30 in its byte, 0 if 2, 3 or 5 divides n.
+  private static final int[] BIT = new int[30];
+  private static final int[] RESIDUES = {1, 7, 11, 13, 17, 19, 23, 29};
+
+  static {
+    for(int j = 0; j < RESIDUES.length; j++)
+      BIT[RESIDUES[j]] = 1 << j;
+  }
+
+  // Bytes per chunk of generate.
+  private static final int CHUNK_BYTES = 1 << 20;
+
+  private final MappedByteBuffer map;
+  private final long limit;
+
+  private MappedPrimeTable(MappedByteBuffer map, long limit) {
+    this.map = map;
+    this.limit = limit;
+  }
+
+  public static void main(String[] args) throws IOException {
+    String mode = args.length > 0 ? args[0] : "generate";
+    Path file = Paths.get(args.length > 1 ? args[1] : "primes32.bin");
+    long t0 = System.nanoTime();
+    if (mode.equals("generate")) {
+      long limit = args.length > 2 ? MillerRabinExhaustive.number(args[2]).longValueExact() : MAX_LIMIT;
+      generate(file, limit);
+      System.out.format("Wrote %s for n < %d, %.1f s%n", file, limit, (System.nanoTime() - t0) / 1e9);
+    } else if (mode.equals("verify")) {
+      MappedPrimeTable table = open(file);
+      MillerRabinHashed mrhashed = new MillerRabinHashed();
+      long bad = LongStream.range(0, table.limit).parallel()
+        .filter(n -> table.isPrime(n) != mrhashed.isPrime(n))
+        .count();
+      System.out.format("%s: %d mismatches against MillerRabinHashed for n < %d, %.1f s%n",
+        file, bad, table.limit, (System.nanoTime() - t0) / 1e9);
+    } else {
+      throw new IllegalArgumentException("Unknown mode " + mode + ", expected generate or verify");
+    }
+  }
+
+  /**
+   * Sieves [0, limit) in parallel chunks into a temporary file next to file, then moves it
+   * over file atomically. JVMs that still map the old file keep its pages, so an existing
+   * table is never truncated under them.
+   */
+  public static void generate(Path file, long limit) throws IOException {
+    if (limit < 1 || limit > MAX_LIMIT)
+      throw new IllegalArgumentException(String.format("limit %d not in [1, 2^32]", limit));
+    Path dir = file.toAbsolutePath().getParent();
+    Path tmp = Files.createTempFile(dir, file.getFileName() + ".", ".tmp");
+    try {
+      write(tmp, limit);
+      Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+
+  private static void write(Path file, long limit) throws IOException {
+    long bytes = (limit + 29) / 30;
+    ChunkSieve sieve = new ChunkSieve(limit - 1);
+    try(FileChannel out = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER).putInt(MAGIC).putInt(VERSION).putLong(limit).flip();
+      write(out, header, 0);
+      long chunks = (bytes + CHUNK_BYTES - 1) / CHUNK_BYTES;
+      LongStream.range(0, chunks).parallel().forEach(c -> {
+        long b0 = c * CHUNK_BYTES, b1 = Math.min(bytes, b0 + CHUNK_BYTES);
+        try {
+          write(out, ByteBuffer.wrap(chunk(sieve, b0, b1, limit - 1)), HEADER + b0);
+        } catch(IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+      out.force(false);
+    }
+  }
+
+  // Bytes [b0, b1) of the wheel, numbers up to last.
+  private static byte[] chunk(ChunkSieve sieve, long b0, long b1, long last) {
+    ChunkSieve.Window window = sieve.newWindow();
+    window.sieve(30 * b0, Math.min(30 * b1 - 1, last));
+    byte[] result = new byte[(int)(b1 - b0)];
+    for(long i = b0; i < b1; i++) {
+      int bits = 0;
+      for(int j = 0; j < RESIDUES.length; j++) {
+        long n = 30 * i + RESIDUES[j];
+        if (n <= last && window.isPrime(n))
+          bits |= 1 << j;
+      }
+      result[(int)(i - b0)] = (byte)bits;
+    }
+    return result;
+  }
+
+  private static void write(FileChannel out, ByteBuffer buf, long position) throws IOException {
+    while(buf.hasRemaining())
+      position += out.write(buf, position);
+  }
+
+  /**
+   * Maps a file written by generate.
+   */
+  public static MappedPrimeTable open(Path file) throws IOException {
+    try(FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+      MappedByteBuffer map = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+      if (map.limit() < HEADER || map.getInt(0) != MAGIC || map.getInt(4) != VERSION)
+        throw new IOException("Not a prime table: " + file);
+      long limit = map.getLong(8);
+      if (limit < 1 || limit > MAX_LIMIT || map.limit() != HEADER + (limit + 29) / 30)
+        throw new IOException(String.format("Prime table %s has %d bytes, not for n < %d", file, map.limit(), limit));
+      return new MappedPrimeTable(map, limit);
+    }
+  }
+
+  /**
+   * The table named by the system property PROPERTY, null if it is not set.
+   */
+  static MappedPrimeTable fromProperty() {
+    String file = System.getProperty(PROPERTY);
+    if (file == null)
+      return null;
+    try {
+      return open(Paths.get(file));
+    } catch(IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * n < limit() are in the table.
+   */
+  public long limit() {
+    return limit;
+  }
+
+  /**
+   * 0 <= n < limit().
+   */
+  public boolean isPrime(long n) {
+    int bit = BIT[(int)(n % 30)];
+    if (bit == 0)
+      return n == 2 || n == 3 || n == 5;
+    return (map.get(HEADER + (int)(n / 30)) & bit) != 0;
+  }
+
+  public boolean isPrime(int n) {
+    int bit = BIT[n % 30];
+    if (bit == 0)
+      return n == 2 || n == 3 || n == 5;
+    return (map.get(HEADER + n / 30) & bit) != 0;
+  }
+}
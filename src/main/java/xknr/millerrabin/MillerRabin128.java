@@ -0,0 +1,273 @@
+package xknr.millerrabin;
+
+import java.math.BigInteger;
+
+/**
+ * Version for n above Long.MAX_VALUE, on two longs (high, low) instead of BigInteger.
+ * Accepts n < MillerRabinBig.LIMIT13 (about 2^81.5), the limit of the verified witness sets.
+ *
+ * Numbers are kept in Montgomery form (x * 2^128 mod n) as two 64 bit limbs.
+ * The arithmetic is valid for any odd n < 2^127.
+ * Java has no pair return, so every step that makes a two limb value is written
+ * inline where its limbs are needed, and they stay in locals: a call allocates nothing.
+ */
+public class MillerRabin128
+{
+  public static final BigInteger ARG_LIMIT = MillerRabinBig.ARG_LIMIT;
+
+  // Below this, {2, ..., 37} (first 12 primes) is enough.
+  private static final long LIMIT12_HIGH = high(new BigInteger("318665857834031151167461"));
+  private static final long LIMIT12_LOW = low(new BigInteger("318665857834031151167461"));
+
+  // Below this, {2, ..., 41} (first 13 primes) is enough.
+  private static final long LIMIT13_HIGH = high(MillerRabinBig.LIMIT13);
+  private static final long LIMIT13_LOW = low(MillerRabinBig.LIMIT13);
+
+  private static final int WIT_FIRST_PRIMES[] = {2, 3, 5, 7, 11, 13, 17, 19, 23, 29, 31, 37, 41};
+
+  // 47#, every prime up to 47 divides it.
+  private static final long PRIMORIAL = 614_889_782_588_491_410L;
+
+  private final MillerRabin64Montgomery mr64mont = new MillerRabin64Montgomery();
+
+  // Counts n > Long.MAX_VALUE, the rest is in MillerRabin64Montgomery.stats.
+  static final EngineStats stats = new EngineStats("MillerRabin128");
+
+  public boolean isPrime(BigInteger n) {
+    if (n.compareTo(MillerRabinBig.LONG_MAX) <= 0)
+      return n.signum() > 0 && mr64mont.isPrime(n.longValue());
+
+    if (n.compareTo(ARG_LIMIT) > 0)
+      throw new IllegalArgumentException(
+        String.format("No verified witness set for n >= %s", MillerRabinBig.LIMIT13));
+
+    return isPrime(high(n), low(n));
+  }
+
+  /**
+   * n = high * 2^64 + low, low unsigned, 0 <= high.
+   */
+  public boolean isPrime(long high, long low) {
+    if (high == 0 && low >= 0)
+      return mr64mont.isPrime(low);
+
+    if (!inRange(high, low))
+      throw new IllegalArgumentException(
+        String.format("No verified witness set for n >= %s", MillerRabinBig.LIMIT13));
+
+    // n > 2^63, so a factor <= 47 means composite.
+    long r = MillerRabin64.remainder(high, low, PRIMORIAL);
+    if (SmallPrimeFilter.check(r + PRIMORIAL) == SmallPrimeFilter.COMPOSITE) {
+      stats.small(false);
+      return false;
+    }
+
+    int[] witnesses;
+    int numWitnesses;
+    EngineStats.Tier tier;
+    if (high == 0) {
+      // 2^63 <= n < 2^64
+      witnesses = MillerRabin64.WIT_SPECIAL2;
+      numWitnesses = witnesses.length;
+      tier = EngineStats.Tier.SPECIAL2;
+    } else {
+      witnesses = WIT_FIRST_PRIMES;
+      numWitnesses = less(high, low, LIMIT12_HIGH, LIMIT12_LOW) ? 12 : 13;
+      tier = numWitnesses == 12 ? EngineStats.Tier.FIRST_12 : EngineStats.Tier.FIRST_13;
+    }
+    stats.tier(tier);
+
+    // n-1 = 2^k * m, n is odd so low - 1 does not borrow.
+    long mh = high, ml = low - 1;
+    int k;
+    if (ml != 0) {
+      k = Long.numberOfTrailingZeros(ml);
+      ml = (ml >>> k) | (k == 0 ? 0L : mh << (64 - k));
+      mh >>>= k;
+    } else {
+      k = 64 + Long.numberOfTrailingZeros(mh);
+      ml = mh >>> (k - 64);
+      mh = 0L;
+    }
+
+    long nInv = -MillerRabin64Montgomery.inverse(low); // -n^-1 mod 2^64
+
+    // 2^128 mod n, by doubling.
+    long oneH = 0L, oneL = 1L;
+    for(int i = 0; i < 128; i++) {
+      // 2x < 2^128, no carry out.
+      long h = (oneH << 1) | (oneL >>> 63);
+      long l = oneL << 1;
+      if (!less(h, l, high, low)) {
+        h = h - high - borrow(l, low, l - low);
+        l -= low;
+      }
+      oneH = h;
+      oneL = l;
+    }
+
+    for(int i = 0; i < numWitnesses; i++)
+      if (!tryWitness(witnesses[i], mh, ml, high, low, k, nInv, oneH, oneL)) {
+        stats.rejected(tier, i);
+        return false;
+      }
+
+    stats.prime(tier);
+    return true;
+  }
+
+  /**
+   * 0 <= (high, low) < LIMIT13, where the witness sets are verified.
+   */
+  static boolean inRange(long high, long low) {
+    return high >= 0 && less(high, low, LIMIT13_HIGH, LIMIT13_LOW);
+  }
+
+  /**
+   * Strong test of odd n = (nh, nl) to base 0 < a < n, n-1 = 2^k * (mh, ml).
+   * one is 2^128 mod n.
+   *
+   * All Montgomery products are made by the one copy of the product in the loop below,
+   * which squares b, or multiplies it by a when times is set.
+   */
+  static boolean tryWitness(int a, long mh, long ml, long nh, long nl, int k,
+      long nInv, long oneH, long oneL) {
+    // a in Montgomery form, a * one mod n by doubling and adding one from the top bit of a.
+    long ah = 0L, al = 0L;
+    for(int j = 31 - Integer.numberOfLeadingZeros(a); j >= 0; j--) {
+      // Both sums are below 2n < 2^128, no carry out.
+      long h = (ah << 1) | (al >>> 63);
+      long l = al << 1;
+      if (!less(h, l, nh, nl)) {
+        h = h - nh - borrow(l, nl, l - nl);
+        l -= nl;
+      }
+      if (((a >>> j) & 1) != 0) {
+        long sum = l + oneL;
+        h = h + oneH + carry(l, oneL, sum);
+        l = sum;
+        if (!less(h, l, nh, nl)) {
+          h = h - nh - borrow(l, nl, l - nl);
+          l -= nl;
+        }
+      }
+      ah = h;
+      al = l;
+    }
+
+    // -1 in Montgomery form is n - one, one < n.
+    long n1L = nl - oneL;
+    long n1H = nh - oneH - borrow(nl, oneL, n1L);
+
+    // b = a^m from the top bit of m down, then k - 1 squarings.
+    long bh = ah, bl = al;
+    int i = mh != 0 ? 128 - Long.numberOfLeadingZeros(mh) : 64 - Long.numberOfLeadingZeros(ml);
+    i--; // Bits of m below the one done.
+    boolean times = false;
+    int squares = -1; // Squarings left once b = a^m, -1 before.
+    for(;;) {
+      if (squares < 0) {
+        if (!times) {
+          if (i == 0) {
+            if ((bh == oneH && bl == oneL) || (bh == n1H && bl == n1L))
+              return true;
+            squares = k - 1; // Already made one check above.
+            continue;
+          }
+          i--;
+        }
+      } else {
+        if (squares == 0)
+          return false;
+        squares--;
+      }
+
+      // Montgomery product b * y / 2^128 mod n into b, y = a or b, for b, y < n < 2^127, n odd.
+      // Two rounds of operand scanning, one per limb of b. Carries are computed without branches,
+      // they are unpredictable.
+      long yh = times ? ah : bh, yl = times ? al : bl;
+      long t0 = 0L, t1 = 0L, t2 = 0L;
+      for(int r = 0; r < 2; r++) {
+        long bi = r == 0 ? bl : bh;
+
+        // t += bi * y
+        long p = bi * yl;
+        long lo = p + t0;
+        long c = Math.unsignedMultiplyHigh(bi, yl) + carry(p, t0, lo);
+        t0 = lo;
+
+        p = bi * yh;
+        lo = p + t1;
+        long hi = Math.unsignedMultiplyHigh(bi, yh) + carry(p, t1, lo);
+        p = lo;
+        lo += c;
+        hi += carry(p, c, lo);
+        t1 = lo;
+        t2 += hi;
+
+        // t = (t + q * n) / 2^64, with q making the lowest limb 0.
+        long q = t0 * nInv;
+        p = q * nl;
+        c = Math.unsignedMultiplyHigh(q, nl) + carry(p, t0, p + t0);
+
+        p = q * nh;
+        lo = p + t1;
+        hi = Math.unsignedMultiplyHigh(q, nh) + carry(p, t1, lo);
+        p = lo;
+        lo += c;
+        hi += carry(p, c, lo);
+        t0 = lo;
+        t1 = t2 + hi;
+        t2 = carry(t2, hi, t1);
+      }
+      // t < 2n < 2^128, subtract n once if needed.
+      if (!less(t1, t0, nh, nl)) {
+        t1 = t1 - nh - borrow(t0, nl, t0 - nl);
+        t0 -= nl;
+      }
+      bh = t1;
+      bl = t0;
+
+      if (squares >= 0) {
+        if (bh == oneH && bl == oneL) {
+          return false;
+        } else if (bh == n1H && bl == n1L) {
+          return true;
+        }
+      } else {
+        // After a squaring for a set bit of m, multiply by a.
+        long bit = i >= 64 ? mh >>> (i - 64) : ml >>> i;
+        times = !times && (bit & 1L) != 0;
+      }
+    }
+  }
+
+  /**
+   * Carry out of sum = x + y.
+   */
+  private static long carry(long x, long y, long sum) {
+    return ((x & y) | ((x | y) & ~sum)) >>> 63;
+  }
+
+  /**
+   * Borrow out of diff = x - y.
+   */
+  private static long borrow(long x, long y, long diff) {
+    return ((~x & y) | (~(x ^ y) & diff)) >>> 63;
+  }
+
+  /**
+   * (ah, al) < (bh, bl), unsigned.
+   */
+  private static boolean less(long ah, long al, long bh, long bl) {
+    return ah != bh ? Long.compareUnsigned(ah, bh) < 0 : Long.compareUnsigned(al, bl) < 0;
+  }
+
+  private static long high(BigInteger n) {
+    return n.shiftRight(64).longValue();
+  }
+
+  private static long low(BigInteger n) {
+    return n.longValue();
+  }
+}
@@ -17,27 +17,47 @@ public class MillerRabin32
 
   public static final long ARG_LIMIT = Integer.MAX_VALUE;
   
-	public boolean isPrime(int n) {		
-    if (n <= 1) 
-      return false;
+  static final EngineStats stats = new EngineStats("MillerRabin32");
+
+	public boolean isPrime(int n) {
+    if (!EngineStats.ENABLED)
+      return test(n);
+    EngineStats.PrimalityTestEvent event = stats.begin();
+    boolean prime = test(n);
+    stats.end(event, 32 - Integer.numberOfLeadingZeros(n), prime);
+    return prime;
+  }
+
+	private boolean test(int n) {		
+    // Small n and n with a factor <= 47 are decided here.
+    int small = SmallPrimeFilter.check(n);
+    if (small != SmallPrimeFilter.UNKNOWN) {
+      stats.small(small == SmallPrimeFilter.PRIME);
+      return small == SmallPrimeFilter.PRIME;
+    }
+
+    EngineStats.Tier tier = n < LIMIT2 
+      ? (n < LIMIT1 ? EngineStats.Tier.FIRST_1 : EngineStats.Tier.FIRST_2) 
+      : EngineStats.Tier.SPECIAL1;
+    stats.tier(tier);
 				
     // n-1 = 2^k * m
     final int k = Integer.numberOfTrailingZeros(n - 1);
     final int m = (n - 1) >>> k;
 
-    // 2 is common in all cases. 
-    if (n % 2 == 0) 
-      return n == 2;
-    if (!tryWitness(2, m, n, k)) 
+    // 2 is common in all cases. n is odd and has no factor <= 47 here.
+    if (!tryWitness(2, m, n, k)) {
+      stats.rejected(tier, 0);
       return false;
+    }
 
     if (n < LIMIT2) { 
       if (n >= LIMIT1) {
         // use 2, 3
-        if (n % 3 == 0) 
-          return n == 3;        
-        if (!tryWitness(3, m, n, k)) 
+        if (!tryWitness(3, m, n, k)) {
+          stats.rejected(tier, 1);
           return false;
+        }
       }
       // n < LIMIT1
       // use only 2, which is already tested, so do nothing.
@@ -45,19 +65,24 @@ public class MillerRabin32
       // Use 2, 7, 61
       // 2 is already tested.
       
-      if (n % PRIME1 == 0) 
-        return n == PRIME1;
-      
-      if (n % PRIME2 == 0) 
+      // 61 is above the small prime filter, a multiple of it is no witness.
+      if (n % PRIME2 == 0) {
+        stats.small(n == PRIME2);
         return n == PRIME2;
+      }
       
-      if (!tryWitness(PRIME1, m, n, k)) 
+      if (!tryWitness(PRIME1, m, n, k)) {
+        stats.rejected(tier, 1);
         return false;
+      }
       
-      if (!tryWitness(PRIME2, m, n, k)) 
+      if (!tryWitness(PRIME2, m, n, k)) {
+        stats.rejected(tier, 2);
         return false;
+      }
     }  
 
+    stats.prime(tier);
     return true;
 	}
 
@@ -0,0 +1,150 @@
+package xknr.millerrabin;
+
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Batch version over int arrays using the Vector API.
+ * Needs --add-modules jdk.incubator.vector at compile and run time.
+ *
+ * Each lane holds one n in a long and runs a single strong test
+ * to the hashed base of MillerRabinHashed, in 32 bit Montgomery form,
+ * so a * b fits into the 64 bit lane.
+ * Lanes differ in m and k, so they are masked per bit of m and leave the
+ * squaring loop as soon as they are decided.
+ *
+ * n decided by SmallPrimeFilter never reaches the lanes. The tail of the
+ * batch that does not fill all lanes goes through the scalar MillerRabinHashed.
+ */
+public class MillerRabin32Vector
+{
+  private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+  private static final int LANES = SPECIES.length();
+
+  private static final long MASK32 = 0xffffffffL;
+
+  private final MillerRabinHashed mrhashed = new MillerRabinHashed();
+
+  /**
+   * Bit i of outBits (outBits[i >>> 6], bit i & 63) is set iff in[off + i] is prime.
+   * The first (len + 63) / 64 words of outBits are overwritten.
+   */
+  public void isPrime(int[] in, int off, int len, long[] outBits) {
+    if (off < 0 || len < 0 || off > in.length - len)
+      throw new IndexOutOfBoundsException(
+        String.format("Range [%d, %d + %d) out of bounds for length %d", off, off, len, in.length));
+
+    int words = (len + 63) >>> 6;
+    if (outBits.length < words)
+      throw new IllegalArgumentException(
+        String.format("outBits needs %d words for %d numbers, has %d", words, len, outBits.length));
+
+    for(int w = 0; w < words; w++)
+      outBits[w] = 0L;
+
+    // Lane inputs, filled with n undecided by the prefilter until all lanes are used.
+    int[] idx = new int[LANES];
+    long[] n = new long[LANES], a = new long[LANES], m = new long[LANES], k = new long[LANES];
+    long[] nInv = new long[LANES], one = new long[LANES], r2 = new long[LANES];
+    boolean[] result = new boolean[LANES];
+    int lane = 0;
+
+    for(int i = 0; i < len; i++) {
+      int x = in[off + i];
+      int small = SmallPrimeFilter.check(x);
+      if (small != SmallPrimeFilter.UNKNOWN) {
+        if (small == SmallPrimeFilter.PRIME)
+          outBits[i >>> 6] |= 1L << i;
+        continue;
+      }
+
+      idx[lane] = i;
+      n[lane] = x;
+      a[lane] = MillerRabinHashedTable.BASES[MillerRabinHashed.hash(x)];
+      int kk = Integer.numberOfTrailingZeros(x - 1);
+      k[lane] = kk;
+      m[lane] = (x - 1) >>> kk;
+      nInv[lane] = inverse(x) & MASK32;
+      one[lane] = (1L << 32) % x;
+      r2[lane] = one[lane] * one[lane] % x; // one < 2^31
+
+      if (++lane == LANES) {
+        tryWitnesses(n, a, m, k, nInv, one, r2, result);
+        for(int j = 0; j < LANES; j++)
+          if (result[j])
+            outBits[idx[j] >>> 6] |= 1L << idx[j];
+        lane = 0;
+      }
+    }
+
+    // Tail.
+    for(int j = 0; j < lane; j++)
+      if (mrhashed.isPrime((int)n[j]))
+        outBits[idx[j] >>> 6] |= 1L << idx[j];
+  }
+
+  /**
+   * One strong test per lane of odd n[j] to base a[j], n[j] - 1 = 2^k[j] * m[j].
+   */
+  private static void tryWitnesses(long[] na, long[] aa, long[] ma, long[] ka,
+      long[] nInva, long[] onea, long[] r2a, boolean[] result) {
+    LongVector n = LongVector.fromArray(SPECIES, na, 0);
+    LongVector nInv = LongVector.fromArray(SPECIES, nInva, 0);
+    LongVector one = LongVector.fromArray(SPECIES, onea, 0);
+    LongVector m = LongVector.fromArray(SPECIES, ma, 0);
+    LongVector k = LongVector.fromArray(SPECIES, ka, 0);
+
+    // b0 = a^m % n, in Montgomery form.
+    LongVector b = montMul(LongVector.fromArray(SPECIES, aa, 0), LongVector.fromArray(SPECIES, r2a, 0), n, nInv);
+    LongVector r = one;
+    while(m.compare(VectorOperators.NE, 0L).anyTrue()) {
+      VectorMask<Long> odd = m.and(1L).compare(VectorOperators.NE, 0L);
+      r = r.blend(montMul(r, b, n, nInv), odd);
+      b = montMul(b, b, n, nInv);
+      m = m.lanewise(VectorOperators.LSHR, 1);
+    }
+
+    LongVector n1 = n.sub(one); // -1 in Montgomery form.
+    VectorMask<Long> prime = r.compare(VectorOperators.EQ, one).or(r.compare(VectorOperators.EQ, n1));
+    VectorMask<Long> done = prime;
+
+    // Already made one check above.
+    k = k.sub(1L);
+    VectorMask<Long> live = done.not().and(k.compare(VectorOperators.GT, 0L));
+    while(live.anyTrue()) {
+      r = montMul(r, r, n, nInv);
+      // r == 1 decides composite, r == n - 1 decides prime.
+      VectorMask<Long> isOne = r.compare(VectorOperators.EQ, one).and(live);
+      VectorMask<Long> isN1 = r.compare(VectorOperators.EQ, n1).and(live);
+      prime = prime.or(isN1);
+      done = done.or(isOne).or(isN1);
+      k = k.sub(1L);
+      live = done.not().and(k.compare(VectorOperators.GT, 0L));
+    }
+
+    prime.intoArray(result, 0);
+  }
+
+  /**
+   * Lanewise Montgomery product a * b / 2^32 mod n for 0 <= a, b < n < 2^32.
+   * nInv is n^-1 mod 2^32.
+   */
+  private static LongVector montMul(LongVector a, LongVector b, LongVector n, LongVector nInv) {
+    LongVector t = a.mul(b); // < 2^64 as unsigned
+    LongVector q = t.mul(nInv).and(MASK32);
+    LongVector r = t.lanewise(VectorOperators.LSHR, 32).sub(q.mul(n).lanewise(VectorOperators.LSHR, 32));
+    return r.add(n, r.compare(VectorOperators.LT, 0L));
+  }
+
+  /**
+   * n^-1 mod 2^32 for odd n, using Newton iteration.
+   */
+  private static int inverse(int n) {
+    int x = n;
+    for(int i = 0; i < 4; i++)
+      x *= 2 - n * x;
+    return x;
+  }
+}
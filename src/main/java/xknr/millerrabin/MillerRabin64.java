@@ -3,7 +3,6 @@ package xknr.millerrabin;
 import java.math.BigInteger;
 
 import org.weakref.int128.Int128;
-import org.weakref.int128.Int128Holder;
 import org.weakref.int128.Int128Math;
 
 import static xknr.euler.util.BigInt.*;
@@ -43,55 +42,128 @@ public class MillerRabin64
 
   public static final long ARG_LIMIT = Long.MAX_VALUE;
  
-  private static final int LIMIT1 = 2047;
-  private static final int LIMIT2 = 1_373_653;
-  private static final long LIMIT_SPECIAL1 = 4_759_123_141L;
-  private static final long LIMIT5 = 2_152_302_898_747L;
-  private static final long LIMIT6 = 3_474_749_660_383L;
+  // Package-private so that other 64-bit engines share the same tiers.
+  static final int LIMIT1 = 2047;
+  static final int LIMIT2 = 1_373_653;
+  static final long LIMIT_SPECIAL1 = 4_759_123_141L;
+  static final long LIMIT5 = 2_152_302_898_747L;
+  static final long LIMIT6 = 3_474_749_660_383L;
   
-  private static final int WIT_FIRST_PRIMES[] = {2, 3, 5, 7, 11, 13, 17, 19, 23, 29, 31, 37};
-  private static final int WIT_SPECIAL1[] = {2, 7, 61};
-  private static final int WIT_SPECIAL2[] = {2, 325, 9375, 28178, 450775, 9780504, 1795265022};
+  static final int WIT_FIRST_PRIMES[] = {2, 3, 5, 7, 11, 13, 17, 19, 23, 29, 31, 37};
+  static final int WIT_SPECIAL1[] = {2, 7, 61};
+  static final int WIT_SPECIAL2[] = {2, 325, 9375, 28178, 450775, 9780504, 1795265022};
+
+  static final EngineStats stats = new EngineStats("MillerRabin64");
+
+  // Null for the built-in tiers.
+  private final WitnessPlan plan;
+
+  public MillerRabin64() {
+    this.plan = null;
+  }
+
+  /**
+   * Uses the witness sets of plan. isPrime throws IllegalArgumentException for n >= plan.limit().
+   */
+  public MillerRabin64(WitnessPlan plan) {
+    this.plan = plan;
+  }
 
   public boolean isPrime(long n) {
-		if (n <= 1) 
-		  return false;
+    if (!EngineStats.ENABLED)
+      return test(n);
+    EngineStats.PrimalityTestEvent event = stats.begin();
+    boolean prime = test(n);
+    stats.end(event, 64 - Long.numberOfLeadingZeros(n), prime);
+    return prime;
+  }
+
+  private boolean test(long n) {
+    // Small n and n with a factor <= 47 are decided here.
+    int small = SmallPrimeFilter.check(n);
+    if (small != SmallPrimeFilter.UNKNOWN) {
+      stats.small(small == SmallPrimeFilter.PRIME);
+      return small == SmallPrimeFilter.PRIME;
+    }
+    if (plan != null)
+      return testPlan(n);
 		
 		int[] witnesses = null;
 		int numWitnesses;
+		EngineStats.Tier tier;
 
     if (n < LIMIT_SPECIAL1) { 
       if (n < LIMIT2) {
         witnesses = WIT_FIRST_PRIMES;
         numWitnesses = n < LIMIT1 ? 1 : 2;
+        tier = n < LIMIT1 ? EngineStats.Tier.FIRST_1 : EngineStats.Tier.FIRST_2;
       } else {
         witnesses = WIT_SPECIAL1;
         numWitnesses = witnesses.length;
+        tier = EngineStats.Tier.SPECIAL1;
       }
     } else { 
       if (n < LIMIT6) {
         witnesses = WIT_FIRST_PRIMES;
         numWitnesses = n < LIMIT5 ? 5 : 6;
+        tier = n < LIMIT5 ? EngineStats.Tier.FIRST_5 : EngineStats.Tier.FIRST_6;
       } else {
         witnesses = WIT_SPECIAL2;
         numWitnesses = witnesses.length;
+        tier = EngineStats.Tier.SPECIAL2;
       }
     }
+    stats.tier(tier);
 
+    // SmallPrimeFilter has decided every n with a factor <= 47, so those witnesses are skipped.
+    // The composite bases of WIT_SPECIAL2 have such a factor too and stay only to keep the loop
+    // independent of the sets: 61 of WIT_SPECIAL1 is the one witness that can divide n here.
     for(int i = 0; i < numWitnesses; i++)
-      if (n % witnesses[i] == 0) 
+      if (witnesses[i] > SmallPrimeFilter.MAX_PRIME && n % witnesses[i] == 0) {
+        stats.small(n == witnesses[i]);
         return n == witnesses[i];
+      }
 		  
 		// n-1 = 2^k * m
 		int k = Long.numberOfTrailingZeros(n - 1);
 		long m = (n - 1) >>> k;
 		
     for(int i = 0; i < numWitnesses; i++)
-      if (!tryWitness(witnesses[i], m, n, k))
+      if (!tryWitness(witnesses[i], m, n, k)) {
+        stats.rejected(tier, i);
         return false;
+      }
     
+    stats.prime(tier);
     return true;
 	}
+
+  private boolean testPlan(long n) {
+    int t = plan.tier(n);
+    long[] witnesses = plan.longWitnesses(t);
+    EngineStats.Tier tier = plan.statTier(t);
+    stats.tier(tier);
+
+    int k = Long.numberOfTrailingZeros(n - 1);
+    long m = (n - 1) >>> k;
+
+    for(int i = 0; i < witnesses.length; i++) {
+      // A multiple of n is no witness, but n | a is prime iff it is a prime factor of a.
+      // Other witnesses sharing a factor with n reject it.
+      long a = witnesses[i] % n;
+      if (a == 0) {
+        if (plan.isWitnessFactor(t, i, n))
+          break;
+      } else if (tryWitness(a, m, n, k)) {
+        continue;
+      }
+      stats.rejected(tier, i);
+      return false;
+    }
+
+    stats.prime(tier);
+    return true;
+  }
   
   public boolean tryWitness(long a, long m, long n, int k) {
     // b0 = a^m % n
@@ -129,9 +201,7 @@ public class MillerRabin64
     return r;
   }  
   
-  private Int128Holder quotient = new Int128Holder();
-  private Int128Holder remainder = new Int128Holder();
-  
+  // Keeps all state in locals, so one instance can be shared between threads.
   public long mulMod(long r, long b, long m) {
     long rh = r >>> 63, rl = r;
     long bh = b >>> 63, bl = b;
@@ -139,11 +209,53 @@ public class MillerRabin64
     long rbh = Int128Math.multiplyHigh(rh, rl, bh, bl);
     long rbl = Int128Math.multiplyLow(rh, rl, bh, bl);
     
-    long mh = m >>> 63, ml = m;
-    
-    Int128Math.divide(rbh, rbl, mh, ml, quotient, remainder);
+    return remainder(rbh, rbl, m);
+  }
+
+  private static final long DIGIT = 1L << 32;
+  private static final long DIGIT_MASK = DIGIT - 1;
+
+  /**
+   * (high * 2^64 + low) mod m for 0 < m <= Long.MAX_VALUE, high and low unsigned.
+   * Knuth's algorithm D with two 32 bit digits (divlu in Hacker's Delight),
+   * which needs no Int128Holder for the quotient and remainder.
+   */
+  public static long remainder(long high, long low, long m) {
+    if (Long.compareUnsigned(high, m) >= 0)
+      high = Long.remainderUnsigned(high, m);
+
+    // Normalize so that the top bit of m is set, s >= 1 since m > 0.
+    int s = Long.numberOfLeadingZeros(m);
+    m <<= s;
+    long vn1 = m >>> 32, vn0 = m & DIGIT_MASK;
+
+    long un32 = (high << s) | (low >>> (64 - s));
+    long un10 = low << s;
+    long un1 = un10 >>> 32, un0 = un10 & DIGIT_MASK;
+
+    long q1 = Long.divideUnsigned(un32, vn1);
+    long rhat = un32 - q1 * vn1;
+    while (Long.compareUnsigned(q1, DIGIT) >= 0 
+      || Long.compareUnsigned(q1 * vn0, (rhat << 32) + un1) > 0) {
+      q1--;
+      rhat += vn1;
+      if (Long.compareUnsigned(rhat, DIGIT) >= 0)
+        break;
+    }
+
+    long un21 = (un32 << 32) + un1 - q1 * m;
+
+    long q0 = Long.divideUnsigned(un21, vn1);
+    rhat = un21 - q0 * vn1;
+    while (Long.compareUnsigned(q0, DIGIT) >= 0 
+      || Long.compareUnsigned(q0 * vn0, (rhat << 32) + un0) > 0) {
+      q0--;
+      rhat += vn1;
+      if (Long.compareUnsigned(rhat, DIGIT) >= 0)
+        break;
+    }
 
-    return remainder.low();
+    return ((un21 << 32) + un0 - q0 * m) >>> s;
   }
 
   public static long mulMod128(long r, long b, long m) {
@@ -22,31 +22,26 @@ public class MillerRabin64Limited
 	    throw new IllegalArgumentException(
         String.format("Would cause overflow. %d >= %d", n, ARG_LIMIT));
 	  
-	  if (n <= 1) 
-	    return false;
+    // Small n and n with a factor <= 47 are decided here.
+    int small = SmallPrimeFilter.check(n);
+    if (small != SmallPrimeFilter.UNKNOWN) 
+      return small == SmallPrimeFilter.PRIME;
 
     // n-1 = 2^k * m
     int k = Long.numberOfTrailingZeros(n - 1);
     long m = (n - 1) >>> k;
 
-    if (n % 2 == 0) 
-      return n == 2;
-    
+    // n is odd and has no factor <= 47 here.
     if (!tryWitness(2, m, n, k)) 
       return false;
 
     if (n < LIMIT2) { 
       if (n >= LIMIT1) {
-        if (n % 3 == 0) 
-          return n == 3;
-        
         if (!tryWitness(3, m, n, k)) 
           return false;
       }
     } else {
-      if (n % PRIME1 == 0) 
-        return n == PRIME1;
-      
+      // 61 is above the small prime filter, a multiple of it is no witness.
       if (n % PRIME2 == 0) 
         return n == PRIME2;
       
@@ -0,0 +1,170 @@
+package xknr.millerrabin;
+
+import static xknr.millerrabin.MillerRabin64.*;
+
+/**
+ * Version using Montgomery multiplication on longs.
+ * Accepts any long, uses the same witness sets as MillerRabin64.
+ *
+ * Numbers are kept in Montgomery form (x * 2^64 mod n), so every
+ * multiplication is two 64x64 -> 128 bit products and a subtraction,
+ * with no 128 by 64 bit division.
+ * Constants depending on n are computed once per isPrime call and
+ * passed down, so the class holds no mutable state.
+ */
+public class MillerRabin64Montgomery
+{
+  public static final long ARG_LIMIT = Long.MAX_VALUE;
+
+  static final EngineStats stats = new EngineStats("MillerRabin64Montgomery");
+
+  public boolean isPrime(long n) {
+    // Small n and n with a factor <= 47 are decided here.
+    int small = SmallPrimeFilter.check(n);
+    if (small != SmallPrimeFilter.UNKNOWN) {
+      stats.small(small == SmallPrimeFilter.PRIME);
+      return small == SmallPrimeFilter.PRIME;
+    }
+
+    int[] witnesses = null;
+    int numWitnesses;
+    EngineStats.Tier tier;
+
+    if (n < LIMIT_SPECIAL1) {
+      if (n < LIMIT2) {
+        witnesses = WIT_FIRST_PRIMES;
+        numWitnesses = n < LIMIT1 ? 1 : 2;
+        tier = n < LIMIT1 ? EngineStats.Tier.FIRST_1 : EngineStats.Tier.FIRST_2;
+      } else {
+        witnesses = WIT_SPECIAL1;
+        numWitnesses = witnesses.length;
+        tier = EngineStats.Tier.SPECIAL1;
+      }
+    } else {
+      if (n < LIMIT6) {
+        witnesses = WIT_FIRST_PRIMES;
+        numWitnesses = n < LIMIT5 ? 5 : 6;
+        tier = n < LIMIT5 ? EngineStats.Tier.FIRST_5 : EngineStats.Tier.FIRST_6;
+      } else {
+        witnesses = WIT_SPECIAL2;
+        numWitnesses = witnesses.length;
+        tier = EngineStats.Tier.SPECIAL2;
+      }
+    }
+    stats.tier(tier);
+
+    // SmallPrimeFilter has decided every n with a factor <= 47, so those witnesses are skipped.
+    // The composite bases of WIT_SPECIAL2 have such a factor too and stay only to keep the loop
+    // independent of the sets: 61 of WIT_SPECIAL1 is the one witness that can divide n here.
+    for(int i = 0; i < numWitnesses; i++)
+      if (witnesses[i] > SmallPrimeFilter.MAX_PRIME && n % witnesses[i] == 0) {
+        stats.small(n == witnesses[i]);
+        return n == witnesses[i];
+      }
+
+    // From here on n is odd, which Montgomery form requires.
+
+    // n-1 = 2^k * m
+    int k = Long.numberOfTrailingZeros(n - 1);
+    long m = (n - 1) >>> k;
+
+    long nInv = inverse(n);
+    long one = Long.remainderUnsigned(-n, n); // 2^64 mod n
+    long r2 = mulR(one, n);                   // 2^128 mod n
+
+    for(int i = 0; i < numWitnesses; i++)
+      if (!tryWitness(witnesses[i], m, n, k, nInv, one, r2)) {
+        stats.rejected(tier, i);
+        return false;
+      }
+
+    stats.prime(tier);
+    return true;
+  }
+
+  public static boolean tryWitness(long a, long m, long n, int k, long nInv, long one, long r2) {
+    // b0 = a^m % n, in Montgomery form.
+    long b = modularExp1(montMul(a, r2, n, nInv), m, n, nInv, one);
+
+    long n1 = n - one; // -1 in Montgomery form.
+    if (b == one || b == n1)
+      return true;
+    --k; // Already made one check above.
+
+    for(; k > 0; --k) {
+      b = montMul(b, b, n, nInv);
+      if (b == one) {
+        return false;
+      } else if (b == n1) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Single strong test of odd n > 1 to base a.
+   * Computes the constants for n, for callers testing one base only.
+   */
+  public static boolean tryWitness(long a, long n) {
+    int k = Long.numberOfTrailingZeros(n - 1);
+    long m = (n - 1) >>> k;
+
+    long nInv = inverse(n);
+    long one = Long.remainderUnsigned(-n, n);
+    return tryWitness(a, m, n, k, nInv, one, mulR(one, n));
+  }
+
+  /**
+   * b^e in Montgomery form, where b is already in Montgomery form.
+   * one is 2^64 mod n, i.e. 1 in Montgomery form.
+   */
+  public static long modularExp1(long b, long e, long n, long nInv, long one) {
+    long r = one;
+    while(e > 0L) {
+      if ((e & 1L) != 0L) {
+        r = montMul(r, b, n, nInv);
+      }
+      e >>>= 1L;
+      b = montMul(b, b, n, nInv);
+    }
+    return r;
+  }
+
+  /**
+   * Montgomery product a * b / 2^64 mod n for 0 <= a, b < n < 2^63.
+   * nInv is n^-1 mod 2^64.
+   */
+  public static long montMul(long a, long b, long n, long nInv) {
+    // a, b < 2^63, so the signed high product is the unsigned one.
+    long hi = Math.multiplyHigh(a, b);
+    long lo = a * b;
+
+    // lo - q * n == 0 mod 2^64, so (a * b - q * n) / 2^64 is hi - high(q * n).
+    long q = lo * nInv;
+    long r = hi - Math.unsignedMultiplyHigh(q, n);
+
+    // -n < r < n
+    return r < 0 ? r + n : r;
+  }
+
+  /**
+   * n^-1 mod 2^64 for odd n, using Newton iteration.
+   * n * n == 1 mod 8 gives 3 correct bits, each step doubles them.
+   */
+  public static long inverse(long n) {
+    long x = n;
+    for(int i = 0; i < 5; i++)
+      x *= 2 - n * x;
+    return x;
+  }
+
+  /**
+   * x * 2^64 mod n.
+   * Used once per n to get 2^128 mod n, with two 64 by 32 bit divisions.
+   */
+  static long mulR(long x, long n) {
+    return MillerRabin64.remainder(x, 0L, n);
+  }
+}
@@ -0,0 +1,127 @@
+package xknr.millerrabin;
+
+import static xknr.millerrabin.MillerRabin64.*;
+
+/**
+ * Batch version over long arrays.
+ *
+ * First pass decides small n and n with a factor <= 47 by SmallPrimeFilter,
+ * and files the rest by witness tier. Then each tier is tested in one run,
+ * so every loop uses the same witnesses and branches the same way.
+ *
+ * Tiers follow Primality.isPrime(long): a single hashed witness below 2^32,
+ * base 2 and a hashed witness below MillerRabinHashed.HASHED_LIMIT, then the MillerRabin64 sets.
+ */
+public class MillerRabinBatch
+{
+  private static final int TIER_HASHED = 0;
+  private static final int TIER_HASHED64 = 1;
+  private static final int TIER_SPECIAL1 = 2;
+  private static final int TIER_5 = 3;
+  private static final int TIER_6 = 4;
+  private static final int TIER_SPECIAL2 = 5;
+  private static final int NUM_TIERS = 6;
+
+  /**
+   * Bit i of outBits (outBits[i >>> 6], bit i & 63) is set iff in[off + i] is prime.
+   * The first (len + 63) / 64 words of outBits are overwritten.
+   */
+  public void isPrime(long[] in, int off, int len, long[] outBits) {
+    if (off < 0 || len < 0 || off > in.length - len)
+      throw new IndexOutOfBoundsException(
+        String.format("Range [%d, %d + %d) out of bounds for length %d", off, off, len, in.length));
+
+    int words = (len + 63) >>> 6;
+    if (outBits.length < words)
+      throw new IllegalArgumentException(
+        String.format("outBits needs %d words for %d numbers, has %d", words, len, outBits.length));
+
+    for(int w = 0; w < words; w++)
+      outBits[w] = 0L;
+
+    // Pass 1: prefilter, survivors are filed with their tier.
+    int[] survivors = new int[len];
+    byte[] survivorTier = new byte[len];
+    int numSurvivors = 0;
+    int[] tierStart = new int[NUM_TIERS + 1];
+
+    for(int i = 0; i < len; i++) {
+      long n = in[off + i];
+      int small = SmallPrimeFilter.check(n);
+      if (small == SmallPrimeFilter.PRIME) {
+        outBits[i >>> 6] |= 1L << i;
+      } else if (small == SmallPrimeFilter.UNKNOWN) {
+        int tier = tier(n);
+        survivors[numSurvivors] = i;
+        survivorTier[numSurvivors++] = (byte)tier;
+        tierStart[tier + 1]++;
+      }
+    }
+
+    // Counting sort survivors by tier.
+    for(int t = 0; t < NUM_TIERS; t++)
+      tierStart[t + 1] += tierStart[t];
+
+    int[] byTier = new int[numSurvivors];
+    int[] pos = tierStart.clone();
+    for(int s = 0; s < numSurvivors; s++)
+      byTier[pos[survivorTier[s]]++] = survivors[s];
+
+    // Pass 2: strong tests, one tier at a time.
+    for(int s = tierStart[TIER_HASHED]; s < tierStart[TIER_HASHED + 1]; s++) {
+      int i = byTier[s];
+      if (MillerRabinHashed.tryHashed32(in[off + i]))
+        outBits[i >>> 6] |= 1L << i;
+    }
+
+    for(int s = tierStart[TIER_HASHED64]; s < tierStart[TIER_HASHED64 + 1]; s++) {
+      int i = byTier[s];
+      if (MillerRabinHashed.tryHashed64(in[off + i]) < 0)
+        outBits[i >>> 6] |= 1L << i;
+    }
+
+    testTier(in, off, outBits, byTier, tierStart[TIER_SPECIAL1], tierStart[TIER_SPECIAL1 + 1], WIT_SPECIAL1, WIT_SPECIAL1.length);
+    testTier(in, off, outBits, byTier, tierStart[TIER_5], tierStart[TIER_5 + 1], WIT_FIRST_PRIMES, 5);
+    testTier(in, off, outBits, byTier, tierStart[TIER_6], tierStart[TIER_6 + 1], WIT_FIRST_PRIMES, 6);
+    testTier(in, off, outBits, byTier, tierStart[TIER_SPECIAL2], tierStart[TIER_SPECIAL2 + 1], WIT_SPECIAL2, WIT_SPECIAL2.length);
+  }
+
+  private static int tier(long n) {
+    if (n < MillerRabinHashed.TABLE_LIMIT)
+      return TIER_HASHED;
+    if (n < MillerRabinHashed.HASHED_LIMIT)
+      return TIER_HASHED64;
+    if (n < LIMIT_SPECIAL1)
+      return TIER_SPECIAL1;
+    if (n < LIMIT5)
+      return TIER_5;
+    if (n < LIMIT6)
+      return TIER_6;
+    return TIER_SPECIAL2;
+  }
+
+  private static void testTier(long[] in, int off, long[] outBits, int[] byTier, int beg, int end,
+      int[] witnesses, int numWitnesses) {
+    for(int s = beg; s < end; s++) {
+      int i = byTier[s];
+      if (tryWitnesses(in[off + i], witnesses, numWitnesses))
+        outBits[i >>> 6] |= 1L << i;
+    }
+  }
+
+  private static boolean tryWitnesses(long n, int[] witnesses, int numWitnesses) {
+    // n-1 = 2^k * m
+    int k = Long.numberOfTrailingZeros(n - 1);
+    long m = (n - 1) >>> k;
+
+    long nInv = MillerRabin64Montgomery.inverse(n);
+    long one = Long.remainderUnsigned(-n, n);
+    long r2 = MillerRabin64Montgomery.mulR(one, n);
+
+    for(int i = 0; i < numWitnesses; i++)
+      if (!MillerRabin64Montgomery.tryWitness(witnesses[i], m, n, k, nInv, one, r2))
+        return false;
+
+    return true;
+  }
+}
@@ -1,127 +1,481 @@
 package xknr.millerrabin;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.math.BigInteger;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
-import xknr.euler.primes.SieveEratBitVector;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Frequency;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
 
 import static xknr.euler.util.BigInt.*;
 
+import java.util.function.LongPredicate;
 import java.util.function.Predicate;
 
 /*
- * TODO use a conditional test for values not in sieve
- * warn if sieve size could be bigger
- * miller3MT can also use values much larger than can be done with a sieve and check against isprobableprime
+ * Checks one engine against a reference for every n in [from, to).
+ *
+ * Parameters are name=value arguments, all optional:
+ *   engine=64         one of ENGINES
+ *   from=9000000000   decimal, _ allowed, or 2^k
+ *   to=10000000000
+ *   threads=<cores>
+ *   chunk=1000000
+ *   checkpoint=<file> default exhaustive-<engine>-<from>-<to>.ckpt, none to disable
+ * e.g. ./gradlew runExhaustiveTest --args="engine=32 from=0 to=2^31"
+ *
+ * The reference is exact up to 2^63: each worker sieves its own chunk with a ChunkSieve,
+ * whose base primes up to sqrt(to) are shared. Above 2^63 it is isProbablePrime.
+ * Engines on longs run on primitive longs when the range fits (MillerRabinLongMT),
+ * on a work stealing pool, with chunks claimed from an AtomicLong.
+ * The rest run on BigIntegers (MillerRabinGenericMT).
+ *
+ * Completed chunks go to the checkpoint file (ExhaustiveCheckpoint). A run started
+ * again with the same engine, range and chunk size skips them.
+ *
+ * Progress goes to JFR (ChunkEvent, SieveEvent, ProgressEvent, category Miller-Rabin)
+ * and to one summary line on stdout every SUMMARY_SECONDS. Workers only add to a
+ * LongAdder per chunk, they never write to the console.
+ *
+ * A mismatch stops all workers after their current chunk, and the run ends with an
+ * IllegalStateException, so main exits non-zero.
  */
 
 public class MillerRabinExhaustive {
-  private static final long sieveMax = 10_000_000_000L;
-  private static SieveEratBitVector sieve;
-
   private static final MillerRabin32 m32 = new MillerRabin32();
   private static final MillerRabin64Limited m64lim = new MillerRabin64Limited();
   private static final MillerRabin64 m64 = new MillerRabin64();
+  private static final MillerRabin64Montgomery m64mont = new MillerRabin64Montgomery();
+  private static final MillerRabinHashed mhashed = new MillerRabinHashed();
   private static final MillerRabinBig mbig = new MillerRabinBig();
+  private static final MillerRabin128 m128 = new MillerRabin128();
 
   private static final Predicate<BigInteger> primalityTest32 = x -> m32.isPrime(x.intValueExact());
   private static final Predicate<BigInteger> primalityTestLim = x -> m64lim.isPrime(x.longValueExact());
   private static final Predicate<BigInteger> primalityTest64 = x -> m64.isPrime(x.longValueExact());
+  private static final Predicate<BigInteger> primalityTestMont = x -> m64mont.isPrime(x.longValueExact());
+  private static final Predicate<BigInteger> primalityTestHashed = x -> mhashed.isPrime(x.longValueExact());
   private static final Predicate<BigInteger> primalityTestBig = x -> mbig.isPrime(x);
-  private static final Predicate<BigInteger> primalityVerifySieve = x -> sieve.isPrime(x.longValueExact());
+  private static final Predicate<BigInteger> primalityTest128 = x -> m128.isPrime(x);
+  private static final Predicate<BigInteger> primalityTestPrimality = x -> Primality.isPrime(x);
+
+  // The same engines on primitive longs, no BigInteger in the loop. 
+  private static final LongPredicate primalityLong32 = x -> m32.isPrime((int)x);
+  private static final LongPredicate primalityLongLim = x -> m64lim.isPrime(x);
+  private static final LongPredicate primalityLong64 = x -> m64.isPrime(x);
+  private static final LongPredicate primalityLongMont = x -> m64mont.isPrime(x);
+  private static final LongPredicate primalityLongHashed = x -> mhashed.isPrime(x);
+  private static final LongPredicate primalityLongPrimality = x -> Primality.isPrime(x);
 
   private static final int CERTAINITY = 30;
   private static final Predicate<BigInteger> primalityVerifyProb = x -> x.isProbablePrime(CERTAINITY);  
 
-  private static final int THREAD_COUNT = 12;
-  private static final long CHUNK_SIZE = 1000_000;
+  // Engines by name, and the largest n each accepts.
+  private static final Map<String, Predicate<BigInteger>> ENGINES = new LinkedHashMap<>();
+  private static final Map<String, BigInteger> ARG_LIMITS = new LinkedHashMap<>();
+  private static final Map<String, LongPredicate> LONG_ENGINES = new LinkedHashMap<>();
+
+  static {
+    engine("32", primalityTest32, B(MillerRabin32.ARG_LIMIT), primalityLong32);
+    engine("lim", primalityTestLim, B(MillerRabin64Limited.ARG_LIMIT), primalityLongLim);
+    engine("64", primalityTest64, B(MillerRabin64.ARG_LIMIT), primalityLong64);
+    engine("mont", primalityTestMont, B(MillerRabin64Montgomery.ARG_LIMIT), primalityLongMont);
+    engine("hashed", primalityTestHashed, B(MillerRabinHashed.ARG_LIMIT), primalityLongHashed);
+    engine("big", primalityTestBig, MillerRabinBig.ARG_LIMIT, null);
+    engine("128", primalityTest128, MillerRabin128.ARG_LIMIT, null);
+    engine("primality", primalityTestPrimality, null, primalityLongPrimality);
+  }
+
+  private static final long SUMMARY_SECONDS = 10;
+
+  private String engine = "64";
+  private BigInteger beg = B(9_000_000_000L);
+  private BigInteger end = B(10_000_000_000L);
+  private int threadCount = Runtime.getRuntime().availableProcessors();
+  private long chunkSize = 1000_000;
+  private String checkpointFile = null;
+
+  private ExhaustiveCheckpoint checkpoint;
+
+  // Exact reference, null above 2^63.
+  private ChunkSieve oracle;
 
+  // Numbers checked so far, over all threads.
+  private final LongAdder done = new LongAdder();
+
+  // Set by the first worker that fails, the others stop claiming chunks.
+  private volatile boolean failed;
+
+
+  public static void main(String[] args) throws InterruptedException, IOException {
+    MillerRabinExhaustive exhaustive = new MillerRabinExhaustive();
+    for(String arg : args)
+      exhaustive.option(arg);
+    exhaustive.run();
+  }
+
+  private static void engine(String name, Predicate<BigInteger> test, BigInteger argLimit, LongPredicate longTest) {
+    ENGINES.put(name, test);
+    ARG_LIMITS.put(name, argLimit);
+    LONG_ENGINES.put(name, longTest);
+  }
+
+  /**
+   * Applies one name=value argument.
+   */
+  public void option(String arg) {
+    int eq = arg.indexOf('=');
+    if (eq < 0)
+      throw new IllegalArgumentException("Expected name=value: " + arg);
+    String name = arg.substring(0, eq), value = arg.substring(eq + 1);
+    switch(name) {
+      case "engine":
+        if (!ENGINES.containsKey(value))
+          throw new IllegalArgumentException(String.format(
+            "Unknown engine %s, expected one of %s", value, ENGINES.keySet()));
+        engine = value;
+        break;
+      case "from": beg = number(value); break;
+      case "to": end = number(value); break;
+      case "threads": threadCount = Integer.parseInt(value); break;
+      case "chunk": chunkSize = number(value).longValueExact(); break;
+      case "checkpoint": checkpointFile = value; break;
+      default: throw new IllegalArgumentException("Unknown parameter: " + arg);
+    }
+  }
 
-  public static void main(String[] args) throws InterruptedException {
-    new MillerRabinExhaustive().run();
+  /**
+   * Decimal with optional _ separators, or 2^k.
+   */
+  static BigInteger number(String s) {
+    s = s.replace("_", "");
+    if (s.startsWith("2^"))
+      return B(2).pow(Integer.parseInt(s.substring(2)));
+    return new BigInteger(s);
   }
 
-  public void run() {
+  public void run() throws IOException {
+    if (beg.signum() < 0 || beg.compareTo(end) >= 0)
+      throw new IllegalArgumentException(String.format("Empty or negative range [%s, %s)", beg, end));
+    BigInteger limit = ARG_LIMITS.get(engine);
+    if (limit != null && end.subtract(B1).compareTo(limit) > 0)
+      throw new IllegalArgumentException(String.format("Engine %s accepts n <= %s", engine, limit));
+    if (threadCount < 1 || chunkSize < 1)
+      throw new IllegalArgumentException("threads and chunk must be positive");
+
+    if (checkpointFile == null)
+      checkpointFile = String.format("exhaustive-%s-%s-%s.ckpt", engine, beg, end);
+    String header = String.format("# MillerRabinExhaustive engine=%s from=%s to=%s chunk=%d", 
+      engine, beg, end, chunkSize);
     try {
-      // ENTER IMPLEMENTATION HERE:
-      Predicate<BigInteger> primalityFunc = primalityTest64;
-      testMillerMT(primalityFunc);
+      if (!checkpointFile.equals("none")) {
+        Path path = Paths.get(checkpointFile);
+        checkpoint = new ExhaustiveCheckpoint(path, header);
+        if (checkpoint.doneCount().signum() > 0)
+          System.out.format("Resuming from %s, %,d numbers already done%n", path, checkpoint.doneCount());
+      }
+      testMillerMT(ENGINES.get(engine), LONG_ENGINES.get(engine));
     } catch(InterruptedException e) {
       e.printStackTrace();
     } finally {
-      sieve = null;
+      oracle = null;
+      if (checkpoint != null)
+        checkpoint.close();
     }
   }
 
-  public void testMillerMT(Predicate<BigInteger> primalityFunc) throws InterruptedException {
-
-    Predicate<BigInteger> primalityVerify;
+  /**
+   * Runs on longs when the engine has a LongPredicate and the range fits in a long,
+   * else on BigIntegers. longFunc may be null.
+   * @throws IllegalStateException if a worker failed, with the failures of the others suppressed
+   */
+  public void testMillerMT(Predicate<BigInteger> primalityFunc, LongPredicate longFunc) throws InterruptedException {
 
-    // ENTER RANGE HERE (May need to set sieveMax too):
-    BigInteger beg = B(9_000_000_000L);
-    BigInteger end = B(sieveMax);
+    final boolean exact = end.subtract(B1).compareTo(MillerRabinBig.LONG_MAX) <= 0;
+    final Predicate<BigInteger> primalityVerify = exact ? null : primalityVerifyProb;
+    if (exact)
+      prepareSieve(end.subtract(B1).longValueExact());
+    final boolean longPath = exact && longFunc != null;
 
-    if (primalityFunc == primalityTestBig) {
-      primalityVerify = primalityVerifyProb;
-    } else {
-      prepareSieve();
-      primalityVerify = primalityVerifySieve;
-    }
+    // Work stealing keeps all cores busy when chunks take different times.
+    ExecutorService executor = longPath 
+      ? Executors.newWorkStealingPool(threadCount) 
+      : Executors.newFixedThreadPool(threadCount);
 
-    ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+    BigInteger skipped = checkpoint == null ? B0 : checkpoint.doneCount();
+    final long total = end.subtract(beg).subtract(skipped).min(MillerRabinBig.LONG_MAX).longValueExact();
+    final long startNanos = System.nanoTime();
+    ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+    reporter.scheduleAtFixedRate(() -> summary(total, startNanos), 
+      SUMMARY_SECONDS, SUMMARY_SECONDS, TimeUnit.SECONDS);
 
     nextChunkStart = beg;
-    for (int t = 0; t < THREAD_COUNT; t++) {
+    nextLongChunk.set(beg.min(MillerRabinBig.LONG_MAX).longValueExact());
+    failed = false;
+    done.reset();
+    List<Future<?>> workers = new ArrayList<>();
+    for (int t = 0; t < threadCount; t++) {
       final int tid = t;
-      executor.submit(() -> MillerRabinGenericMT(tid, THREAD_COUNT, end, primalityFunc, primalityVerify));
+      final Runnable worker = longPath
+        ? () -> MillerRabinLongMT(tid, end.subtract(B1).longValueExact(), longFunc)
+        : () -> MillerRabinGenericMT(tid, threadCount, end, primalityFunc, primalityVerify);
+      workers.add(executor.submit(() -> {
+        try {
+          worker.run();
+        } catch(RuntimeException | Error e) {
+          failed = true;
+          throw e;
+        }
+      }));
     }
 
     executor.shutdown();
     executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    reporter.shutdownNow();
+    summary(total, startNanos);
+
+    IllegalStateException failure = null;
+    for(Future<?> worker : workers) {
+      try {
+        worker.get();
+      } catch(ExecutionException e) {
+        if (failure == null)
+          failure = new IllegalStateException("Worker failed: " + e.getCause().getMessage(), e.getCause());
+        else
+          failure.addSuppressed(e.getCause());
+      }
+    }
+    if (failure != null)
+      throw failure;
     System.out.println("All tests completed.");
   }
 
+  /**
+   * One line with numbers done, overall rate and time left, plus a ProgressEvent.
+   */
+  private void summary(long total, long startNanos) {
+    long count = done.sum();
+    double seconds = (System.nanoTime() - startNanos) / 1e9;
+    double rate = seconds > 0 ? count / seconds : 0;
+    long eta = rate > 0 ? (long)((total - count) / rate) : -1;
+    System.out.format("%,d / %,d (%.1f%%), %,.0f numbers/s, ETA %s%n", 
+      count, total, 100.0 * count / Math.max(total, 1), rate, 
+      eta < 0 ? "?" : String.format("%d:%02d:%02d", eta / 3600, eta / 60 % 60, eta % 60));
+
+    ProgressEvent event = new ProgressEvent();
+    event.done = count;
+    event.total = total;
+    event.rate = rate;
+    event.commit();
+  }
+
+  /**
+   * primalityVerify is null when the chunks are checked against the oracle.
+   */
   public void MillerRabinGenericMT(int tid, int threadCount, 
     BigInteger end, 
     Predicate<BigInteger> primalityFunc, 
     Predicate<BigInteger> primalityVerify)
   {
-    while(true) {
+    ChunkSieve.Window window = primalityVerify == null ? oracle.newWindow() : null;
+    while(!failed) {
       BigInteger start = getNextChunk();
       if (start.compareTo(end) >= 0)
         break;
-      BigInteger lim = end.min(start.add(B(CHUNK_SIZE)));
-      System.out.format("[%d] %d - %d\n", tid, start, lim);
+      if (checkpoint != null && checkpoint.isDone(start))
+        continue;
+      BigInteger lim = end.min(start.add(B(chunkSize)));
+      ChunkEvent event = new ChunkEvent();
+      event.begin();
+      long chunkNanos = System.nanoTime();
+      if (window != null)
+        window.sieve(start.longValueExact(), lim.subtract(B1).longValueExact());
+      long sieveNanos = System.nanoTime() - chunkNanos;
 
       for (BigInteger i = start; i.compareTo(lim) < 0; i = i.add(B1)) {
-        boolean expected = primalityVerify.test(i);
+        boolean expected = window != null ? window.isPrime(i.longValueExact()) : primalityVerify.test(i);
         boolean result = primalityFunc.test(i);
 
         if (expected != result) {
-          String msg = String.format("[%d] Failed for MillerRabin32 i = %d on %b = %b", 
-            tid, i, expected, result);
+          String msg = String.format("[%d] Failed for engine %s i = %d on %b = %b", 
+            tid, engine, i, expected, result);
           System.err.println(msg);
           throw new RuntimeException(msg);
         }
       }      
+
+      chunkDone(event, tid, start, lim, chunkNanos, sieveNanos);
+    }
+  }
+
+  /**
+   * Same as MillerRabinGenericMT for n <= last on primitive longs.
+   * Chunks are claimed with one getAndAdd, the loop allocates nothing.
+   */
+  public void MillerRabinLongMT(int tid, long last, LongPredicate primalityFunc) {
+    ChunkSieve.Window window = oracle.newWindow();
+    while(!failed) {
+      long start = nextLongChunk.getAndAdd(chunkSize);
+      // start < 0 once the counter overflows past Long.MAX_VALUE.
+      if (start > last || start < 0)
+        break;
+      if (checkpoint != null && checkpoint.isDone(B(start)))
+        continue;
+      long lim = last - start < chunkSize ? last : start + chunkSize - 1;
+      ChunkEvent event = new ChunkEvent();
+      event.begin();
+      long chunkNanos = System.nanoTime();
+      window.sieve(start, lim);
+      long sieveNanos = System.nanoTime() - chunkNanos;
+
+      for(long i = start; ; i++) {
+        boolean expected = window.isPrime(i);
+        boolean result = primalityFunc.test(i);
+
+        if (expected != result) {
+          String msg = String.format("[%d] Failed for engine %s i = %d on %b = %b", 
+            tid, engine, i, expected, result);
+          System.err.println(msg);
+          throw new RuntimeException(msg);
+        }
+        if (i == lim)
+          break;
+      }
+
+      chunkDone(event, tid, B(start), B(lim).add(B1), chunkNanos, sieveNanos);
+    }
+  }
+
+  /**
+   * Counts [start, lim) as done, records it in the checkpoint and commits its event.
+   */
+  private void chunkDone(ChunkEvent event, int tid, BigInteger start, BigInteger lim, 
+    long chunkNanos, long sieveNanos) 
+  {
+    long count = lim.subtract(start).longValueExact();
+    done.add(count);
+    if (checkpoint != null) {
+      try {
+        checkpoint.completed(start, lim);
+      } catch(IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    event.end();
+    if (event.shouldCommit()) {
+      event.worker = tid;
+      event.start = start.toString();
+      event.count = count;
+      event.sieveTime = sieveNanos;
+      event.rate = count / ((System.nanoTime() - chunkNanos) / 1e9);
+      event.commit();
     }
   }
   
+  // Next chunk of the long path.
+  private final AtomicLong nextLongChunk = new AtomicLong();
+
   private volatile BigInteger nextChunkStart;
 
   private synchronized BigInteger getNextChunk() {
     BigInteger current = nextChunkStart;
-    nextChunkStart = nextChunkStart.add(B(CHUNK_SIZE));
+    nextChunkStart = nextChunkStart.add(B(chunkSize));
     return current;
   }
   
-  private void prepareSieve() {
-    if (sieve == null) {
-      System.err.println("sieve start " + sieveMax);
-      sieve = new SieveEratBitVector(sieveMax);
-      System.err.println("sieve complete");
-    }
+  /**
+   * The base primes of the oracle, shared by all workers.
+   */
+  private void prepareSieve(long last) {
+    System.err.println("sieve base primes for n <= " + last);
+    long sieveNanos = System.nanoTime();
+    SieveEvent event = new SieveEvent();
+    event.begin();
+    oracle = new ChunkSieve(last);
+    event.end();
+    event.limit = oracle.baseLimit();
+    event.bytes = oracle.baseLimit() / 16;
+    event.commit();
+    System.err.format("sieve complete in %.1f s, base primes up to %d%n", 
+      (System.nanoTime() - sieveNanos) / 1e9, oracle.baseLimit());
+  }
+
+  @Name("xknr.millerrabin.ExhaustiveChunk")
+  @Label("Exhaustive Chunk")
+  @Category("Miller-Rabin")
+  @Description("One chunk of an exhaustive run checked against the reference")
+  @StackTrace(false)
+  static final class ChunkEvent extends Event
+  {
+    @Label("Worker")
+    int worker;
+
+    @Label("Start")
+    String start;
+
+    @Label("Numbers")
+    long count;
+
+    @Label("Sieve Time")
+    @Timespan
+    long sieveTime;
+
+    @Label("Numbers per Second")
+    @Frequency
+    double rate;
+  }
+
+  @Name("xknr.millerrabin.ExhaustiveSieve")
+  @Label("Exhaustive Sieve Build")
+  @Description("Base primes of the chunk sieves")
+  @Category("Miller-Rabin")
+  @StackTrace(false)
+  static final class SieveEvent extends Event
+  {
+    @Label("Limit")
+    long limit;
+
+    @Label("Size")
+    @DataAmount
+    long bytes;
+  }
+
+  @Name("xknr.millerrabin.ExhaustiveProgress")
+  @Label("Exhaustive Progress")
+  @Category("Miller-Rabin")
+  @Description("Numbers checked by all workers so far")
+  @StackTrace(false)
+  static final class ProgressEvent extends Event
+  {
+    @Label("Done")
+    long done;
+
+    @Label("Total")
+    long total;
+
+    @Label("Numbers per Second")
+    @Frequency
+    double rate;
   }
 }
@@ -0,0 +1,178 @@
+package xknr.millerrabin;
+
+import java.util.Arrays;
+
+/**
+ * Version using hashed witnesses: one for n < 2^32, two above.
+ *
+ * Below 2^32, n is hashed into one of MillerRabinHashedTable.BASES, a base chosen so
+ * that no odd composite in the same bucket is a strong pseudoprime to it.
+ * So one strong test is enough, instead of up to three (2, 7, 61).
+ *
+ * From 2^32 up to HASHED_LIMIT, n gets a strong test to base 2, then one to
+ * the base of bucket hash64(n) in MillerRabinHashedTable64, after Forisek and Jancina.
+ * The bases are chosen against a list of all base-2 strong pseudoprimes below
+ * HASHED_LIMIT, the only composites that pass the first test.
+ * So two strong tests replace up to seven. At and above HASHED_LIMIT
+ * the witness sets of MillerRabin64 are used through MillerRabin64Montgomery.
+ *
+ * The tables are produced and checked by MillerRabinHashedGenerator
+ * (gradle generateHashedBases / verifyHashedBases), the 64-bit one from the list.
+ */
+public class MillerRabinHashed
+{
+  public static final long ARG_LIMIT = Long.MAX_VALUE;
+
+  // Below this the hashed base table alone is verified.
+  public static final long TABLE_LIMIT = 1L << 32;
+
+  // Below this base 2 and a hashed base are verified, Long.MAX_VALUE once the table covers every long.
+  public static final long HASHED_LIMIT = MillerRabinHashedTable64.LIMIT;
+
+  // Below this, {2} is enough.
+  static final int LIMIT1 = 2047;
+
+  static final int HASH_MUL = 0x45d9f3b;
+
+  static final long HASH64_MUL1 = 0x45d9f3b3335b369L;
+  static final long HASH64_MUL2 = 0x3335b36945d9f3bL;
+
+  // MillerRabinHashedTable64.RUNS, one base per bucket.
+  private static final char BASES64[] = expandRuns(MillerRabinHashedTable64.RUNS, MillerRabinHashedTable64.BUCKETS);
+
+  private final MillerRabin64Montgomery mr64mont = new MillerRabin64Montgomery();
+
+  // The hashed witnesses are counted as tier HASHED. From HASHED_LIMIT on see MillerRabin64Montgomery.stats.
+  static final EngineStats stats = new EngineStats("MillerRabinHashed");
+
+  public boolean isPrime(int n) {
+    // Small n and n with a factor <= 47 are decided here.
+    int small = SmallPrimeFilter.check(n);
+    if (small != SmallPrimeFilter.UNKNOWN) {
+      stats.small(small == SmallPrimeFilter.PRIME);
+      return small == SmallPrimeFilter.PRIME;
+    }
+
+    return count(tryHashed32(n));
+  }
+
+  public boolean isPrime(long n) {
+    if (n <= Integer.MAX_VALUE)
+      // Negative n must not be cut to its low 32 bits.
+      return n >= 0 && isPrime((int)n);
+
+    if (n >= HASHED_LIMIT)
+      return mr64mont.isPrime(n);
+
+    // Small n and n with a factor <= 47 are decided here.
+    int small = SmallPrimeFilter.check(n);
+    if (small != SmallPrimeFilter.UNKNOWN) {
+      stats.small(small == SmallPrimeFilter.PRIME);
+      return small == SmallPrimeFilter.PRIME;
+    }
+
+    if (n < TABLE_LIMIT)
+      return count(tryHashed32(n));
+
+    int rejectedBy = tryHashed64(n);
+    stats.tier(EngineStats.Tier.HASHED);
+    if (rejectedBy >= 0) {
+      stats.rejected(EngineStats.Tier.HASHED, rejectedBy);
+      return false;
+    }
+    stats.prime(EngineStats.Tier.HASHED);
+    return true;
+  }
+
+  /**
+   * Strong test of n to the base hashed from n, for 0 <= n < TABLE_LIMIT with no factor <= 47.
+   * Returns whether n is prime.
+   */
+  static boolean tryHashed32(long n) {
+    int a = MillerRabinHashedTable.BASES[hash((int)n)];
+    if (n > Integer.MAX_VALUE)
+      return MillerRabin64Montgomery.tryWitness(a, n);
+
+    // n-1 = 2^k * m
+    final int k = Long.numberOfTrailingZeros(n - 1);
+    final int m = (int)((n - 1) >>> k);
+    return MillerRabin32.tryWitness(a, m, (int)n, k);
+  }
+
+  /**
+   * Strong tests of n to base 2 and to the base hashed from n, for
+   * TABLE_LIMIT <= n < HASHED_LIMIT with no factor <= 47.
+   * Returns the index of the witness that rejected n, or -1 if n is prime.
+   */
+  static int tryHashed64(long n) {
+    // n-1 = 2^k * m
+    int k = Long.numberOfTrailingZeros(n - 1);
+    long m = (n - 1) >>> k;
+
+    long nInv = MillerRabin64Montgomery.inverse(n);
+    long one = Long.remainderUnsigned(-n, n); // 2^64 mod n
+    long r2 = MillerRabin64Montgomery.mulR(one, n);
+
+    if (!MillerRabin64Montgomery.tryWitness(2, m, n, k, nInv, one, r2))
+      return 0;
+    int a = BASES64[hash64(n)];
+    if (!MillerRabin64Montgomery.tryWitness(a, m, n, k, nInv, one, r2))
+      return 1;
+    return -1;
+  }
+
+  private static boolean count(boolean prime) {
+    stats.tier(EngineStats.Tier.HASHED);
+    if (prime)
+      stats.prime(EngineStats.Tier.HASHED);
+    else
+      stats.rejected(EngineStats.Tier.HASHED, 0);
+    return prime;
+  }
+
+  /**
+   * Bucket of n, read as an unsigned 32 bit value.
+   * Every step is invertible, see MillerRabinHashedGenerator.unhash.
+   */
+  static int hash(int n) {
+    int h = ((n >>> 16) ^ n) * HASH_MUL;
+    h = ((h >>> 16) ^ h) * HASH_MUL;
+    h = (h >>> 16) ^ h;
+    return h & (MillerRabinHashedTable.BUCKETS - 1);
+  }
+
+  /**
+   * Bucket of n in MillerRabinHashedTable64, the hash of Forisek and Jancina.
+   */
+  static int hash64(long n) {
+    long h = ((n >>> 32) ^ n) * HASH64_MUL1;
+    h = ((h >>> 32) ^ h) * HASH64_MUL2;
+    h = (h >>> 32) ^ h;
+    return (int)h & (MillerRabinHashedTable64.BUCKETS - 1);
+  }
+
+  /**
+   * Runs "bucket:base" separated by spaces, in increasing bucket order from bucket 0.
+   * Each base holds from its bucket up to the next run.
+   */
+  static char[] expandRuns(String[] runs, int buckets) {
+    char[] bases = new char[buckets];
+    int from = -1;
+    char base = 0;
+    for(String chunk : runs)
+      for(String run : chunk.trim().split(" +")) {
+        int colon = run.indexOf(':');
+        int bucket = Integer.parseInt(run, 0, colon, 10);
+        if (from < 0 ? bucket != 0 : bucket <= from || bucket >= buckets)
+          throw new IllegalStateException("Bad run " + run);
+        if (from >= 0)
+          Arrays.fill(bases, from, bucket, base);
+        from = bucket;
+        base = (char)Integer.parseInt(run, colon + 1, run.length(), 10);
+      }
+    if (from < 0)
+      throw new IllegalStateException("No runs");
+    Arrays.fill(bases, from, buckets, base);
+    return bases;
+  }
+}
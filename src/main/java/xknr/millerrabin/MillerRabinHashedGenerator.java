@@ -0,0 +1,482 @@
+package xknr.millerrabin;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.stream.LongStream;
+
+import xknr.euler.primes.SieveEratBitVector;
+
+/**
+ * Generates and verifies MillerRabinHashedTable and MillerRabinHashedTable64.
+ *
+ * generate [file]: for every bucket, finds the smallest base for which
+ *   no odd composite 2047 <= n < 2^32 in that bucket is a strong pseudoprime,
+ *   and writes the table source to file.
+ * verify: compares MillerRabinHashed.isPrime with a sieve for all n < 2^32.
+ * Both need a sieve up to 2^32, run with a large heap.
+ *
+ * generate64 [to=2^36] [list=file] [out=file]: for every bucket, finds the smallest base
+ *   a >= 3 to which no base-2 strong pseudoprime 2^32 <= n < to in that bucket is a strong
+ *   pseudoprime, and writes the table source to out. The pseudoprimes are enumerated
+ *   with a sieve (about 35 minutes on one core up to 2^36), or read from list: a
+ *   PseudoprimeCensus file to base 2, or text with one decimal number first on each line,
+ *   e.g. the list of Feitsma and Galway below 2^64. Fermat pseudoprimes in a text list
+ *   are dropped. A list has to hold every base-2 strong pseudoprime below to.
+ * verify64 [list=file]: checks that MillerRabinHashed.isPrime rejects every base-2 strong
+ *   pseudoprime below MillerRabinHashedTable64.LIMIT, enumerated again or read from list,
+ *   and compares it with MillerRabin64Montgomery on random n. Composites that are not
+ *   base-2 strong pseudoprimes fail the base-2 test, primes pass any base < n.
+ */
+public class MillerRabinHashedGenerator
+{
+  private static final int BUCKETS = 4096;
+
+  private static final String TABLE_FILE = "src/main/java/xknr/millerrabin/MillerRabinHashedTable.java";
+
+  private static final int BUCKETS64 = 1 << 18;
+
+  private static final String TABLE64_FILE = "src/main/java/xknr/millerrabin/MillerRabinHashedTable64.java";
+
+  // Runs per string constant of the 64-bit table, which has to stay below 65535 bytes in the class file.
+  private static final int CHUNK64 = 4096;
+
+  private static final int RUNS_PER_LINE = 8;
+
+  private static final int RANDOM_CHECKS64 = 10_000_000;
+
+  private static final long LIMIT = MillerRabinHashed.TABLE_LIMIT;
+
+  // HASH_MUL^-1 mod 2^32
+  private static final int HASH_MUL_INV = inverse(MillerRabinHashed.HASH_MUL);
+
+  private SieveEratBitVector sieve;
+
+  public static void main(String[] args) throws IOException {
+    String mode = args.length > 0 ? args[0] : "verify";
+    MillerRabinHashedGenerator gen = new MillerRabinHashedGenerator();
+    if (mode.equals("generate")) {
+      gen.generate(Paths.get(args.length > 1 ? args[1] : TABLE_FILE));
+    } else if (mode.equals("verify")) {
+      gen.verify();
+    } else if (mode.equals("generate64")) {
+      Map<String, String> opts = options(args);
+      long limit = parseLimit(opts.getOrDefault("to", "2^36"));
+      Path list = opts.containsKey("list") ? Paths.get(opts.get("list")) : null;
+      gen.generate64(list, limit, Paths.get(opts.getOrDefault("out", TABLE64_FILE)));
+    } else if (mode.equals("verify64")) {
+      Map<String, String> opts = options(args);
+      gen.verify64(opts.containsKey("list") ? Paths.get(opts.get("list")) : null);
+    } else {
+      throw new IllegalArgumentException("Unknown mode " + mode);
+    }
+  }
+
+  public void generate(Path file) throws IOException {
+    prepareSieve();
+    int[] bases = new int[BUCKETS];
+    for(int b = 0; b < BUCKETS; b++) {
+      bases[b] = findBase(b);
+      if (b % 256 == 255)
+        System.out.format("[%d] %d\n", b, bases[b]);
+    }
+    writeTable(file, bases);
+    System.out.println("Table written to " + file);
+  }
+
+  public void verify() {
+    if (MillerRabinHashedTable.BUCKETS != BUCKETS)
+      throw new IllegalStateException("Table was generated with a different bucket count.");
+
+    prepareSieve();
+    MillerRabinHashed mr = new MillerRabinHashed();
+    for(long n = 0; n < LIMIT; n++) {
+      if (mr.isPrime(n) != sieve.isPrime(n)) {
+        String msg = String.format("Failed for MillerRabinHashed n = %d", n);
+        System.err.println(msg);
+        throw new RuntimeException(msg);
+      }
+      if ((n & 0xfffffffL) == 0)
+        System.out.format("%d\n", n);
+    }
+    System.out.println("All tests completed.");
+  }
+
+  /**
+   * list is null to enumerate the pseudoprimes.
+   */
+  public void generate64(Path list, long limit, Path file) throws IOException {
+    if (limit <= MillerRabinHashed.TABLE_LIMIT)
+      throw new IllegalArgumentException("limit has to be above 2^32");
+
+    long[] psp = pseudoprimes(list, limit);
+
+    // Counting sort by bucket.
+    int[] start = new int[BUCKETS64 + 1];
+    for(long n : psp)
+      start[MillerRabinHashed.hash64(n) + 1]++;
+    for(int b = 0; b < BUCKETS64; b++)
+      start[b + 1] += start[b];
+    long[] byBucket = new long[psp.length];
+    int[] pos = Arrays.copyOf(start, BUCKETS64);
+    for(long n : psp)
+      byBucket[pos[MillerRabinHashed.hash64(n)]++] = n;
+
+    char[] bases = new char[BUCKETS64];
+    for(int b = 0; b < BUCKETS64; b++) {
+      bases[b] = findBase64(byBucket, start[b], start[b + 1]);
+      if (b % 16384 == 16383)
+        System.out.format("[%d] %d\n", b, (int)bases[b]);
+    }
+    writeTable64(file, bases, limit);
+    System.out.println("Table written to " + file);
+  }
+
+  /**
+   * list is null to enumerate the pseudoprimes.
+   */
+  public void verify64(Path list) throws IOException {
+    if (MillerRabinHashedTable64.BUCKETS != BUCKETS64)
+      throw new IllegalStateException("Table was generated with a different bucket count.");
+
+    long limit = MillerRabinHashedTable64.LIMIT;
+    MillerRabinHashed mr = new MillerRabinHashed();
+    long[] psp = pseudoprimes(list, limit);
+    for(long n : psp)
+      if (mr.isPrime(n)) {
+        String msg = String.format("Failed for MillerRabinHashed n = %d", n);
+        System.err.println(msg);
+        throw new RuntimeException(msg);
+      }
+    System.out.format("%d base-2 strong pseudoprimes below %d rejected\n", psp.length, limit);
+
+    MillerRabin64Montgomery mr64mont = new MillerRabin64Montgomery();
+    SplittableRandom random = new SplittableRandom(64);
+    for(int i = 0; i < RANDOM_CHECKS64; i++) {
+      long n = random.nextLong(MillerRabinHashed.TABLE_LIMIT, limit) | 1;
+      if (mr.isPrime(n) != mr64mont.isPrime(n)) {
+        String msg = String.format("MillerRabinHashed and MillerRabin64Montgomery differ for n = %d", n);
+        System.err.println(msg);
+        throw new RuntimeException(msg);
+      }
+    }
+    System.out.println("All tests completed.");
+  }
+
+  /**
+   * Base-2 strong pseudoprimes 2^32 <= n < limit without a factor <= 47, the composites
+   * MillerRabinHashed hands to the hashed base. Enumerated if list is null, else read from it.
+   */
+  private static long[] pseudoprimes(Path list, long limit) throws IOException {
+    long t0 = System.nanoTime();
+    long[] psp;
+    if (list == null) {
+      psp = enumeratePseudoprimes(limit);
+    } else if (PseudoprimeCensus.isCensusFile(list)) {
+      psp = readCensus(list, limit);
+    } else {
+      psp = readPseudoprimes(list, limit);
+    }
+    System.out.format("%d base-2 strong pseudoprimes in [2^32, %d), %.1f s\n",
+      psp.length, limit, (System.nanoTime() - t0) / 1e9);
+    return psp;
+  }
+
+  /**
+   * Chunks of a ChunkSieve are sieved and tested in parallel on the common pool, as in
+   * PseudoprimeCensus. Unlike the census, only composites that SmallPrimeFilter leaves
+   * undecided get the strong test, about one odd number in five.
+   */
+  static long[] enumeratePseudoprimes(long limit) {
+    long lo = MillerRabinHashed.TABLE_LIMIT;
+    ChunkSieve sieve = new ChunkSieve(limit - 1);
+    long chunks = (limit - lo - 1) / PseudoprimeCensus.CHUNK + 1;
+    return LongStream.range(0, chunks).parallel()
+      .mapToObj(c -> {
+        long first = lo + c * PseudoprimeCensus.CHUNK;
+        return chunk64(sieve, first, PseudoprimeCensus.chunkLast(first, limit));
+      })
+      .flatMapToLong(Arrays::stream)
+      .toArray();
+  }
+
+  private static long[] chunk64(ChunkSieve sieve, long first, long last) {
+    ChunkSieve.Window window = sieve.newWindow();
+    window.sieve(first, last);
+    long[] result = new long[16];
+    int count = 0;
+    for(long n = first | 1; n <= last; n += 2) {
+      if (window.isPrime(n) || SmallPrimeFilter.check(n) != SmallPrimeFilter.UNKNOWN
+          || !MillerRabin64Montgomery.tryWitness(2, n))
+        continue;
+      if (count == result.length)
+        result = Arrays.copyOf(result, 2 * count);
+      result[count++] = n;
+    }
+    return Arrays.copyOf(result, count);
+  }
+
+  /**
+   * A census to base 2 alone, covering [2^32, limit).
+   */
+  private static long[] readCensus(Path list, long limit) throws IOException {
+    PseudoprimeCensus census = PseudoprimeCensus.read(list);
+    if (!Arrays.equals(census.bases(), new long[] {2}))
+      throw new IllegalArgumentException("Census has to be to base 2 alone, is to " + Arrays.toString(census.bases()));
+    if (census.lo > MillerRabinHashed.TABLE_LIMIT || census.hi < limit)
+      throw new IllegalArgumentException(String.format("Census covers [%d, %d), not [2^32, %d)", census.lo, census.hi, limit));
+    return Arrays.stream(census.pseudoprimes())
+      .filter(n -> n >= MillerRabinHashed.TABLE_LIMIT && n < limit && SmallPrimeFilter.check(n) == SmallPrimeFilter.UNKNOWN)
+      .toArray();
+  }
+
+  /**
+   * Text list, n first on each line.
+   */
+  private static long[] readPseudoprimes(Path list, long limit) throws IOException {
+    long[] psp = new long[1 << 16];
+    int count = 0;
+    try (BufferedReader in = Files.newBufferedReader(list)) {
+      String line;
+      while((line = in.readLine()) != null) {
+        line = line.trim();
+        if (line.isEmpty() || line.startsWith("#"))
+          continue;
+        int end = 0;
+        while(end < line.length() && Character.isDigit(line.charAt(end)))
+          end++;
+        long n = Long.parseUnsignedLong(line.substring(0, end));
+        // n >= 2^63 reads as negative.
+        if (n < MillerRabinHashed.TABLE_LIMIT || n >= limit)
+          continue;
+        if (SmallPrimeFilter.check(n) != SmallPrimeFilter.UNKNOWN || !MillerRabin64Montgomery.tryWitness(2, n))
+          continue;
+        if (count == psp.length)
+          psp = Arrays.copyOf(psp, 2 * count);
+        psp[count++] = n;
+      }
+    }
+    return Arrays.copyOf(psp, count);
+  }
+
+  /**
+   * Smallest base a >= 3 to which none of psp[beg], ..., psp[end - 1] is a strong pseudoprime.
+   * An n that defeated a base is moved to the front, to be tried first on the next one.
+   */
+  private static char findBase64(long[] psp, int beg, int end) {
+    candidates:
+    for(int a = 3; a <= Character.MAX_VALUE; a++) {
+      for(int i = beg; i < end; i++)
+        if (MillerRabin64Montgomery.tryWitness(a, psp[i])) {
+          long n = psp[i];
+          psp[i] = psp[beg];
+          psp[beg] = n;
+          continue candidates;
+        }
+      return (char)a;
+    }
+    throw new IllegalStateException("No base below 2^16 for a bucket of " + (end - beg));
+  }
+
+  /**
+   * name=value arguments after the mode.
+   */
+  private static Map<String, String> options(String[] args) {
+    Map<String, String> opts = new HashMap<>();
+    for(int i = 1; i < args.length; i++) {
+      int eq = args[i].indexOf('=');
+      if (eq < 0)
+        throw new IllegalArgumentException("Expected name=value: " + args[i]);
+      opts.put(args[i].substring(0, eq), args[i].substring(eq + 1));
+    }
+    return opts;
+  }
+
+  /**
+   * Decimal or 2^k, see MillerRabinExhaustive.number. Long.MAX_VALUE from 2^63 on, all of the long range.
+   */
+  private static long parseLimit(String s) {
+    BigInteger limit = MillerRabinExhaustive.number(s);
+    return limit.bitLength() > 63 ? Long.MAX_VALUE : limit.longValue();
+  }
+
+  /**
+   * Smallest base a >= 2 which decides every odd n in the bucket.
+   * Numbers that defeated an earlier base are kept and tried first,
+   * as they tend to defeat other bases too.
+   */
+  private int findBase(int bucket) {
+    long[] hard = new long[16];
+    int numHard = 0;
+
+    candidates:
+    for(int a = 2; ; a++) {
+      for(int i = 0; i < numHard; i++)
+        if (strongTest(a, hard[i]) != sieve.isPrime(hard[i]))
+          continue candidates;
+
+      for(long j = 0; j < LIMIT / BUCKETS; j++) {
+        long n = unhash((int)(bucket + j * BUCKETS));
+        if (n < MillerRabinHashed.LIMIT1 || n % 2 == 0)
+          continue;
+
+        // Strong test never rejects a prime, except when a % n == 0,
+        // so the sieve is only consulted when it may disagree.
+        boolean passed = strongTest(a, n);
+        if (!passed && n > a)
+          continue;
+
+        if (passed != sieve.isPrime(n)) {
+          if (numHard == hard.length)
+            hard = Arrays.copyOf(hard, 2 * numHard);
+          hard[numHard++] = n;
+          continue candidates;
+        }
+      }
+      return a;
+    }
+  }
+
+  /**
+   * Inverse of MillerRabinHashed.hash before masking, as an unsigned value.
+   * x ^= x >>> 16 is its own inverse on 32 bits.
+   */
+  static long unhash(int h) {
+    int x = (h >>> 16) ^ h;
+    x *= HASH_MUL_INV;
+    x = (x >>> 16) ^ x;
+    x *= HASH_MUL_INV;
+    x = (x >>> 16) ^ x;
+    return x & 0xffffffffL;
+  }
+
+  /**
+   * Strong test of odd n < 2^32 to base a < 2^32 in 32 bit Montgomery form.
+   * Faster than the engines for the search, which runs it billions of times.
+   */
+  static boolean strongTest(long a, long n) {
+    int k = Long.numberOfTrailingZeros(n - 1);
+    long m = (n - 1) >>> k;
+
+    long nInv = inverse((int)n) & 0xffffffffL;
+    long one = (1L << 32) % n;
+    long r2 = Long.remainderUnsigned(one * one, n);
+
+    long b = montMul(a % n, r2, n, nInv);
+    long r = one;
+    for(; m > 0; m >>>= 1) {
+      if ((m & 1) != 0)
+        r = montMul(r, b, n, nInv);
+      b = montMul(b, b, n, nInv);
+    }
+
+    long n1 = n - one;
+    if (r == one || r == n1)
+      return true;
+
+    for(--k; k > 0; --k) {
+      r = montMul(r, r, n, nInv);
+      if (r == one) {
+        return false;
+      } else if (r == n1) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static long montMul(long a, long b, long n, long nInv) {
+    long t = a * b; // < 2^64 as unsigned
+    long q = (t * nInv) & 0xffffffffL;
+    long r = (t >>> 32) - ((q * n) >>> 32);
+    return r < 0 ? r + n : r;
+  }
+
+  private static int inverse(int n) {
+    int x = n;
+    for(int i = 0; i < 4; i++)
+      x *= 2 - n * x;
+    return x;
+  }
+
+  private void writeTable(Path file, int[] bases) throws IOException {
+    try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file))) {
+      out.println("package xknr.millerrabin;");
+      out.println();
+      out.println("/**");
+      out.println(" * Generated by MillerRabinHashedGenerator, do not edit.");
+      out.println(" * BASES[MillerRabinHashed.hash(n)] alone decides 2047 <= n < 2^32.");
+      out.println(" */");
+      out.println("final class MillerRabinHashedTable");
+      out.println("{");
+      out.format("  static final int BUCKETS = %d;\n", BUCKETS);
+      out.println();
+      out.println("  static final int BASES[] = {");
+      for(int i = 0; i < bases.length; i += 16) {
+        out.print("   ");
+        for(int j = i; j < Math.min(i + 16, bases.length); j++)
+          out.format(" %d,", bases[j]);
+        out.println();
+      }
+      out.println("  };");
+      out.println("}");
+    }
+  }
+
+  /**
+   * The table as runs "bucket:base", a base holding up to the next run.
+   * Most buckets below 2^36 hold no pseudoprime and share base 3.
+   */
+  private void writeTable64(Path file, char[] bases, long limit) throws IOException {
+    int[] runStart = new int[bases.length];
+    int runs = 0;
+    for(int b = 0; b < bases.length; b++)
+      if (b == 0 || bases[b] != bases[b - 1])
+        runStart[runs++] = b;
+
+    try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file))) {
+      out.println("package xknr.millerrabin;");
+      out.println();
+      out.println("/**");
+      out.println(" * Generated by MillerRabinHashedGenerator, do not edit.");
+      out.println(" * Strong tests to 2 and to the base of bucket MillerRabinHashed.hash64(n) decide 2^32 <= n < LIMIT.");
+      out.println(" * RUNS are \"bucket:base\", a base holding up to the next run, see MillerRabinHashed.expandRuns.");
+      out.println(" */");
+      out.println("final class MillerRabinHashedTable64");
+      out.println("{");
+      out.format("  static final int BUCKETS = %d;\n", BUCKETS64);
+      out.println();
+      out.format("  static final long LIMIT = %s;\n", limit == Long.MAX_VALUE ? "Long.MAX_VALUE" : limit + "L");
+      out.println();
+      out.println("  static final String RUNS[] = {");
+      for(int c = 0; c < runs; c += CHUNK64) {
+        int chunkEnd = Math.min(c + CHUNK64, runs);
+        for(int i = c; i < chunkEnd; i += RUNS_PER_LINE) {
+          out.print(i == c ? "    \"" : "    + \"");
+          for(int j = i; j < Math.min(i + RUNS_PER_LINE, chunkEnd); j++)
+            out.format("%d:%d ", runStart[j], (int)bases[runStart[j]]);
+          // One string constant per chunk.
+          out.println(i + RUNS_PER_LINE >= chunkEnd ? "\"," : "\"");
+        }
+      }
+      out.println("  };");
+      out.println("}");
+    }
+  }
+
+  private void prepareSieve() {
+    if (sieve == null) {
+      System.err.println("sieve start " + LIMIT);
+      sieve = new SieveEratBitVector(LIMIT);
+      System.err.println("sieve complete");
+    }
+  }
+}
@@ -0,0 +1,65 @@
+package xknr.millerrabin;
+
+/**
+ * Generated by MillerRabinHashedGenerator, do not edit.
+ * Strong tests to 2 and to the base of bucket MillerRabinHashed.hash64(n) decide 2^32 <= n < LIMIT.
+ * RUNS are "bucket:base", a base holding up to the next run, see MillerRabinHashed.expandRuns.
+ */
+final class MillerRabinHashedTable64
+{
+  static final int BUCKETS = 262144;
+
+  static final long LIMIT = 68719476736L;
+
+  static final String RUNS[] = {
+    "0:3 410:5 411:3 487:5 488:3 1218:5 1219:3 2475:5 "
+    + "2476:3 3816:7 3817:3 5838:5 5839:3 7418:5 7419:3 9879:5 "
+    + "9880:3 10134:7 10135:3 10564:5 10565:3 11787:5 11788:3 12030:7 "
+    + "12031:3 12111:5 12112:3 13919:5 13920:3 16318:5 16319:3 18011:5 "
+    + "18012:3 19013:5 19014:3 20537:5 20538:3 22139:5 22140:3 22239:5 "
+    + "22240:3 23198:5 23199:3 26032:7 26033:3 27727:5 27728:3 29189:5 "
+    + "29190:3 29525:5 29526:3 29670:5 29671:3 30365:5 30366:3 30624:5 "
+    + "30625:3 31126:5 31127:3 31182:5 31183:3 31275:7 31276:3 32351:5 "
+    + "32352:3 32725:5 32726:3 35310:5 35311:3 36427:5 36428:3 37450:5 "
+    + "37451:3 37561:5 37562:3 38570:7 38571:3 38872:5 38873:3 39856:5 "
+    + "39857:3 41319:5 41320:3 44826:7 44827:3 45118:5 45119:3 46409:5 "
+    + "46410:3 47540:5 47541:3 48065:5 48066:3 48875:5 48876:3 49936:5 "
+    + "49937:3 50426:5 50427:3 50456:5 50457:3 52831:5 52832:3 52867:5 "
+    + "52868:3 53777:5 53778:3 56224:5 56225:3 56804:5 56805:3 63903:5 "
+    + "63904:3 64545:5 64546:3 65248:5 65249:3 68158:5 68159:3 70152:5 "
+    + "70153:3 70454:5 70455:3 71033:5 71034:3 76093:5 76094:3 77507:5 "
+    + "77508:3 80478:5 80479:3 82057:5 82058:3 83736:7 83737:3 85244:5 "
+    + "85245:3 88957:5 88958:3 89125:5 89126:3 89220:5 89221:3 89457:5 "
+    + "89458:3 91943:5 91944:3 92469:5 92470:3 94335:5 94336:3 94467:5 "
+    + "94468:3 96475:5 96476:3 97387:5 97388:3 97945:5 97946:3 99573:5 "
+    + "99574:3 101720:5 101721:3 102737:5 102738:3 103725:5 103726:3 105671:5 "
+    + "105672:3 105938:5 105939:3 107796:5 107797:3 108350:5 108351:3 108983:5 "
+    + "108984:3 109015:5 109016:3 109268:7 109269:3 109748:5 109749:3 112513:5 "
+    + "112514:3 112833:5 112834:3 112943:5 112944:3 114543:5 114544:3 115792:7 "
+    + "115793:3 117525:7 117526:3 117572:7 117573:3 117625:7 117626:3 117758:5 "
+    + "117759:3 118979:5 118980:3 119792:5 119793:3 119900:5 119901:3 120699:5 "
+    + "120700:3 123592:5 123593:3 123848:5 123849:3 123971:5 123972:3 126806:5 "
+    + "126807:3 131857:5 131858:3 135492:5 135493:3 135737:5 135738:3 140264:5 "
+    + "140265:3 143267:5 143268:3 148175:5 148176:3 150381:5 150382:3 153478:5 "
+    + "153479:3 154461:7 154462:3 156431:5 156432:3 156830:5 156831:3 159017:5 "
+    + "159018:3 159247:5 159248:3 159284:5 159285:3 161461:5 161462:3 161992:5 "
+    + "161993:3 162274:5 162275:3 162735:5 162736:3 162864:5 162865:3 163707:5 "
+    + "163708:3 165600:5 165601:3 165991:5 165992:3 167210:5 167211:3 168225:5 "
+    + "168226:3 169089:5 169090:3 178014:5 178015:3 178573:5 178574:3 179031:5 "
+    + "179032:3 179346:5 179347:3 181892:7 181893:3 181975:5 181976:3 182271:5 "
+    + "182272:3 183888:5 183889:3 186082:5 186083:3 186272:7 186273:3 187289:5 "
+    + "187290:3 189295:5 189296:3 191631:5 191632:3 191862:5 191863:3 193599:5 "
+    + "193600:3 195992:5 195993:3 196377:5 196378:3 196509:7 196510:3 198406:5 "
+    + "198407:3 200393:5 200394:3 200456:5 200457:3 202214:5 202215:3 209084:5 "
+    + "209085:3 209295:5 209296:3 210013:7 210014:3 210213:5 210214:3 210590:5 "
+    + "210591:3 211869:5 211870:3 215130:5 215131:3 215573:5 215574:3 217666:5 "
+    + "217667:3 219998:5 219999:3 220481:5 220482:3 224514:5 224515:3 226407:5 "
+    + "226408:3 228965:5 228966:3 229945:5 229946:3 231390:5 231391:3 231644:5 "
+    + "231645:3 232098:5 232099:3 232400:5 232401:3 233161:5 233162:3 233794:5 "
+    + "233795:3 233988:5 233989:3 234731:5 234732:3 236477:5 236478:3 237668:5 "
+    + "237669:3 239660:5 239661:3 240204:5 240205:3 242511:7 242512:3 243386:5 "
+    + "243387:3 244095:7 244096:3 244540:5 244541:3 245872:5 245873:3 249394:5 "
+    + "249395:3 250426:5 250427:3 250774:7 250775:3 252660:5 252661:3 254305:5 "
+    + "254306:3 255036:5 255037:3 257239:5 257240:3 258753:5 258754:3 ",
+  };
+}
@@ -0,0 +1,219 @@
+package xknr.millerrabin;
+
+import java.math.BigInteger;
+
+/**
+ * Montgomery arithmetic modulo one odd n, on little endian arrays of 64 bit limbs.
+ *
+ * Numbers are kept in Montgomery form (x * 2^(64 * size) mod n).
+ * Results go into caller supplied buffers, so a loop over many steps
+ * allocates nothing once its buffers exist. The instance has a scratch
+ * buffer and is meant to live for one isPrime call, in one thread.
+ */
+final class MontgomeryLimbs
+{
+  private static final BigInteger MASK64 = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+
+  final int size;
+  private final BigInteger nBig;
+  private final long[] n;
+  private final long nInv; // -n^-1 mod 2^64
+  private final long[] t;  // size + 2 limbs for mul
+
+  MontgomeryLimbs(BigInteger n) {
+    if (n.signum() <= 0 || !n.testBit(0))
+      throw new IllegalArgumentException("n must be odd and positive: " + n);
+
+    this.nBig = n;
+    this.size = (n.bitLength() + 63) >>> 6;
+    this.n = toLimbs(n);
+    this.nInv = -MillerRabin64Montgomery.inverse(this.n[0]);
+    this.t = new long[size + 2];
+  }
+
+  long[] newBuffer() {
+    return new long[size];
+  }
+
+  /**
+   * x in Montgomery form, for any x. Uses BigInteger, meant for setup only.
+   */
+  long[] toMontgomery(BigInteger x) {
+    return toLimbs(x.shiftLeft(64 * size).mod(nBig));
+  }
+
+  private long[] toLimbs(BigInteger x) {
+    long[] limbs = new long[size];
+    for(int i = 0; i < size; i++)
+      limbs[i] = x.shiftRight(64 * i).and(MASK64).longValue();
+    return limbs;
+  }
+
+  /**
+   * out = a * b / 2^(64 * size) mod n, coarsely integrated operand scanning.
+   * out may be the same array as a or b.
+   */
+  void mul(long[] a, long[] b, long[] out) {
+    final int s = size;
+    final long[] t = this.t;
+    for(int j = 0; j < s + 2; j++)
+      t[j] = 0L;
+
+    for(int i = 0; i < s; i++) {
+      // t += a[i] * b
+      long ai = a[i];
+      long c = 0L;
+      for(int j = 0; j < s; j++) {
+        long lo = ai * b[j];
+        long hi = Math.unsignedMultiplyHigh(ai, b[j]);
+        lo += t[j];
+        if (Long.compareUnsigned(lo, t[j]) < 0)
+          hi++;
+        lo += c;
+        if (Long.compareUnsigned(lo, c) < 0)
+          hi++;
+        t[j] = lo;
+        c = hi;
+      }
+      long sum = t[s] + c;
+      t[s + 1] = Long.compareUnsigned(sum, c) < 0 ? 1L : 0L;
+      t[s] = sum;
+
+      // t = (t + q * n) / 2^64, with q making the lowest limb 0.
+      long q = t[0] * nInv;
+      long lo = q * n[0];
+      c = Math.unsignedMultiplyHigh(q, n[0]);
+      lo += t[0];
+      if (Long.compareUnsigned(lo, t[0]) < 0)
+        c++;
+      for(int j = 1; j < s; j++) {
+        lo = q * n[j];
+        long hi = Math.unsignedMultiplyHigh(q, n[j]);
+        lo += t[j];
+        if (Long.compareUnsigned(lo, t[j]) < 0)
+          hi++;
+        lo += c;
+        if (Long.compareUnsigned(lo, c) < 0)
+          hi++;
+        t[j - 1] = lo;
+        c = hi;
+      }
+      sum = t[s] + c;
+      t[s - 1] = sum;
+      t[s] = t[s + 1] + (Long.compareUnsigned(sum, c) < 0 ? 1L : 0L);
+    }
+
+    // t < 2n, subtract n once if needed.
+    if (t[s] != 0 || compare(t, n) >= 0)
+      subtractN(t);
+
+    System.arraycopy(t, 0, out, 0, s);
+  }
+
+  /**
+   * out = a + b mod n.
+   */
+  void add(long[] a, long[] b, long[] out) {
+    long carry = 0L;
+    for(int i = 0; i < size; i++) {
+      long x = a[i] + b[i];
+      long c1 = Long.compareUnsigned(x, a[i]) < 0 ? 1L : 0L;
+      long y = x + carry;
+      long c2 = Long.compareUnsigned(y, x) < 0 ? 1L : 0L;
+      out[i] = y;
+      carry = c1 | c2;
+    }
+    if (carry != 0 || compare(out, n) >= 0)
+      subtractN(out);
+  }
+
+  /**
+   * out = a - b mod n.
+   */
+  void sub(long[] a, long[] b, long[] out) {
+    long borrow = 0L;
+    for(int i = 0; i < size; i++) {
+      long x = a[i] - b[i];
+      long b1 = Long.compareUnsigned(a[i], b[i]) < 0 ? 1L : 0L;
+      long y = x - borrow;
+      long b2 = Long.compareUnsigned(x, borrow) < 0 ? 1L : 0L;
+      out[i] = y;
+      borrow = b1 | b2;
+    }
+    if (borrow != 0)
+      addN(out);
+  }
+
+  /**
+   * out = a / 2 mod n, adding n first when a is odd.
+   */
+  void half(long[] a, long[] out) {
+    long top = 0L;
+    if ((a[0] & 1L) != 0) {
+      long carry = 0L;
+      for(int i = 0; i < size; i++) {
+        long x = a[i] + n[i];
+        long c1 = Long.compareUnsigned(x, a[i]) < 0 ? 1L : 0L;
+        long y = x + carry;
+        long c2 = Long.compareUnsigned(y, x) < 0 ? 1L : 0L;
+        out[i] = y;
+        carry = c1 | c2;
+      }
+      top = carry;
+    } else if (out != a) {
+      System.arraycopy(a, 0, out, 0, size);
+    }
+
+    for(int i = 0; i < size - 1; i++)
+      out[i] = (out[i] >>> 1) | (out[i + 1] << 63);
+    out[size - 1] = (out[size - 1] >>> 1) | (top << 63);
+  }
+
+  static boolean isZero(long[] a) {
+    for(long x : a)
+      if (x != 0L)
+        return false;
+    return true;
+  }
+
+  static boolean equal(long[] a, long[] b) {
+    for(int i = 0; i < a.length; i++)
+      if (a[i] != b[i])
+        return false;
+    return true;
+  }
+
+  /**
+   * Unsigned comparison of the lowest size limbs.
+   */
+  private int compare(long[] a, long[] b) {
+    for(int i = size - 1; i >= 0; i--)
+      if (a[i] != b[i])
+        return Long.compareUnsigned(a[i], b[i]);
+    return 0;
+  }
+
+  private void subtractN(long[] a) {
+    long borrow = 0L;
+    for(int i = 0; i < size; i++) {
+      long x = a[i] - n[i];
+      long b1 = Long.compareUnsigned(a[i], n[i]) < 0 ? 1L : 0L;
+      long y = x - borrow;
+      long b2 = Long.compareUnsigned(x, borrow) < 0 ? 1L : 0L;
+      a[i] = y;
+      borrow = b1 | b2;
+    }
+  }
+
+  private void addN(long[] a) {
+    long carry = 0L;
+    for(int i = 0; i < size; i++) {
+      long x = a[i] + n[i];
+      long c1 = Long.compareUnsigned(x, a[i]) < 0 ? 1L : 0L;
+      long y = x + carry;
+      long c2 = Long.compareUnsigned(y, x) < 0 ? 1L : 0L;
+      a[i] = y;
+      carry = c1 | c2;
+    }
+  }
+}
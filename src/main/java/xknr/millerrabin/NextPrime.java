@@ -0,0 +1,201 @@
+package xknr.millerrabin;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+import static xknr.euler.util.BigInt.*;
+import static xknr.millerrabin.CandidateSieve.nextSetBit;
+import static xknr.millerrabin.CandidateSieve.prevSetBit;
+
+/**
+ * Nearest prime above or below n.
+ *
+ * Candidates are taken a window of odd numbers at a time. The window is sieved
+ * by small odd primes, and only the survivors get a strong test through
+ * Primality.isPrime. A window without a prime is followed by one twice as wide.
+ *
+ * How deep to sieve is a trade between one residue per sieving prime and window,
+ * and the strong tests saved. A long is sieved by the primes below LONG_SIEVE_LIMIT,
+ * where about 1 in 4 odd candidates survives. A strong test of a BigInteger costs
+ * much more, it is sieved by the primes below SIEVE_LIMIT, where about 1 in 8 survives.
+ */
+public final class NextPrime
+{
+  static final int SIEVE_LIMIT = 8192;
+  static final int LONG_SIEVE_LIMIT = 128;
+
+  // Odd candidates in the first window, and the widest window.
+  static final int FIRST_WIDTH = 64;
+  static final int MAX_WIDTH = 4096;
+
+  // Largest prime that fits in a long.
+  public static final long LARGEST_LONG_PRIME = 9_223_372_036_854_775_783L;
+
+  private static final CandidateSieve SIEVE = new CandidateSieve(oddPrimes(SIEVE_LIMIT));
+  private static final int PRIMES[] = SIEVE.primes;
+  private static final int LONG_PRIMES = SIEVE.countBelow(LONG_SIEVE_LIMIT);
+
+  // ceil(2^64 / p) for each of PRIMES, see mod.
+  private static final long RECIPROCALS[] = reciprocals(PRIMES);
+
+  private NextPrime() {
+  }
+
+  /**
+   * Smallest prime > n.
+   * @throws ArithmeticException if n >= LARGEST_LONG_PRIME
+   */
+  public static long next(long n) {
+    if (n < 2)
+      return 2;
+    if (n >= LARGEST_LONG_PRIME)
+      throw new ArithmeticException(String.format("No prime above %d fits in a long", n));
+
+    long start = (n + 1) | 1;
+    int[] residues = new int[LONG_PRIMES];
+    long[] survivors = new long[(MAX_WIDTH + 63) >>> 6];
+    for(int width = FIRST_WIDTH; ; width = Math.min(2 * width, MAX_WIDTH)) {
+      // The answer is at most LARGEST_LONG_PRIME, the window must not pass Long.MAX_VALUE.
+      int count = (int)Math.min(width, (Long.MAX_VALUE - start) / 2 + 1);
+      for(int j = 0; j < LONG_PRIMES; j++)
+        residues[j] = mod(start, j);
+
+      SIEVE.sieve(residues, start < LONG_SIEVE_LIMIT ? start : 0, survivors, count);
+      for(int i = nextSetBit(survivors, 0, count); i >= 0; i = nextSetBit(survivors, i + 1, count)) {
+        long c = start + 2L * i;
+        if (Primality.isPrime(c))
+          return c;
+      }
+      start += 2L * count;
+    }
+  }
+
+  /**
+   * Largest prime < n.
+   * @throws IllegalArgumentException if n <= 2
+   */
+  public static long prev(long n) {
+    if (n <= 2)
+      throw new IllegalArgumentException(String.format("No prime below %d", n));
+    if (n <= 3)
+      return 2;
+
+    // Odd candidates top, top - 2, ..., all >= 3.
+    long top = (n - 2) | 1;
+    int[] residues = new int[LONG_PRIMES];
+    long[] survivors = new long[(MAX_WIDTH + 63) >>> 6];
+    for(int width = FIRST_WIDTH; top >= 3; width = Math.min(2 * width, MAX_WIDTH)) {
+      int count = (int)Math.min(width, (top - 3) / 2 + 1);
+      long start = top - 2L * (count - 1);
+      for(int j = 0; j < LONG_PRIMES; j++)
+        residues[j] = mod(start, j);
+
+      SIEVE.sieve(residues, start < LONG_SIEVE_LIMIT ? start : 0, survivors, count);
+      for(int i = prevSetBit(survivors, count - 1); i >= 0; i = prevSetBit(survivors, i - 1)) {
+        long c = start + 2L * i;
+        if (Primality.isPrime(c))
+          return c;
+      }
+      top = start - 2;
+    }
+    return 2;
+  }
+
+  /**
+   * Smallest prime > n.
+   * Deterministic while the result is below MillerRabinBig.LIMIT13,
+   * a probable prime above, see Primality.isPrime(BigInteger).
+   */
+  public static BigInteger next(BigInteger n) {
+    if (n.compareTo(B(LARGEST_LONG_PRIME)) < 0)
+      return B(next(n.max(B0).longValue()));
+
+    BigInteger start = n.add(B1).setBit(0);
+    int[] residues = new int[PRIMES.length];
+    long[] survivors = new long[(MAX_WIDTH + 63) >>> 6];
+    for(int width = FIRST_WIDTH; ; width = Math.min(2 * width, MAX_WIDTH)) {
+      residues(start, residues);
+      SIEVE.sieve(residues, 0, survivors, width);
+      for(int i = nextSetBit(survivors, 0, width); i >= 0; i = nextSetBit(survivors, i + 1, width)) {
+        BigInteger c = start.add(B(2L * i));
+        if (Primality.isPrime(c))
+          return c;
+      }
+      start = start.add(B(2L * width));
+    }
+  }
+
+  /**
+   * Largest prime < n.
+   * @throws IllegalArgumentException if n <= 2
+   */
+  public static BigInteger prev(BigInteger n) {
+    // Checked before narrowing, longValue() of n below Long.MIN_VALUE keeps only the low bits.
+    if (n.compareTo(B(2)) <= 0)
+      throw new IllegalArgumentException(String.format("No prime below %d", n));
+    if (n.compareTo(B(LARGEST_LONG_PRIME)) <= 0)
+      return B(prev(n.longValueExact()));
+
+    BigInteger top = n.subtract(B(2)).setBit(0);
+    int[] residues = new int[PRIMES.length];
+    long[] survivors = new long[(MAX_WIDTH + 63) >>> 6];
+    for(int width = FIRST_WIDTH; ; width = Math.min(2 * width, MAX_WIDTH)) {
+      // top >= LARGEST_LONG_PRIME, so the window stays far above SIEVE_LIMIT.
+      // Below 2^63 the long version takes over.
+      BigInteger start = top.subtract(B(2L * (width - 1)));
+      residues(start, residues);
+      SIEVE.sieve(residues, 0, survivors, width);
+      for(int i = prevSetBit(survivors, width - 1); i >= 0; i = prevSetBit(survivors, i - 1)) {
+        BigInteger c = start.add(B(2L * i));
+        if (c.bitLength() < 64) {
+          // Everything above c is composite, continue with longs.
+          return B(prev(Math.min(c.longValue(), LARGEST_LONG_PRIME) + 1));
+        }
+        if (Primality.isPrime(c))
+          return c;
+      }
+      top = start.subtract(B(2));
+    }
+  }
+
+  private static void residues(BigInteger start, int[] residues) {
+    int j = 0;
+    for(int g = 0; g < SIEVE.groupProducts.length; g++) {
+      long r = start.mod(B(SIEVE.groupProducts[g])).longValue();
+      for(; j < SIEVE.groupEnds[g]; j++)
+        residues[j] = mod(r, j);
+    }
+  }
+
+  /**
+   * x mod PRIMES[j] for x >= 0, with a multiplication instead of a division.
+   * x * ceil(2^64 / p) / 2^64 is x / p plus less than x / 2^64 < 1/2,
+   * so the quotient is exact or one too large.
+   */
+  private static int mod(long x, int j) {
+    int p = PRIMES[j];
+    long r = x - Math.unsignedMultiplyHigh(x, RECIPROCALS[j]) * p;
+    return (int)(r < 0 ? r + p : r);
+  }
+
+  private static long[] reciprocals(int[] primes) {
+    long[] result = new long[primes.length];
+    for(int j = 0; j < primes.length; j++)
+      result[j] = Long.divideUnsigned(-1L, primes[j]) + 1;
+    return result;
+  }
+
+  private static int[] oddPrimes(int limit) {
+    int[] primes = new int[limit];
+    int count = 0;
+    for(int p = 3; p < limit; p += 2) {
+      boolean prime = true;
+      for(int j = 0; j < count && primes[j] * primes[j] <= p; j++)
+        if (p % primes[j] == 0)
+          prime = false;
+      if (prime)
+        primes[count++] = p;
+    }
+    return Arrays.copyOf(primes, count);
+  }
+}
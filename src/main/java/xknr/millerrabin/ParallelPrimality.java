@@ -0,0 +1,118 @@
+package xknr.millerrabin;
+
+import java.math.BigInteger;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Fork/join tasks behind Primality.parallelIsPrime.
+ *
+ * A range is halved until it is at most one leaf, splitting at multiples of 64 numbers,
+ * so every word of outBits belongs to one task. A leaf collects its bits in a buffer
+ * of its own and copies them to outBits once at the end, so threads never write
+ * to the same cache line while testing. Leaves of longs go through MillerRabinBatch,
+ * whose passes stay within a leaf of input, 32 KB, for cache locality.
+ *
+ * The engines keep their state in locals, so all workers share the instances of Primality.
+ */
+final class ParallelPrimality
+{
+  // Numbers per leaf, multiples of 64.
+  static final int LONG_LEAF = 1 << 12;
+  static final int BIG_LEAF = 1 << 8;
+
+  private static final MillerRabinBatch mrbatch = new MillerRabinBatch();
+
+  private ParallelPrimality() {
+  }
+
+  static void isPrime(long[] in, int off, int len, long[] outBits) {
+    check(in.length, off, len, outBits);
+    ForkJoinPool.commonPool().invoke(new LongTask(in, off, 0, len, outBits));
+  }
+
+  static void isPrime(BigInteger[] in, int off, int len, long[] outBits) {
+    check(in.length, off, len, outBits);
+    ForkJoinPool.commonPool().invoke(new BigTask(in, off, 0, len, outBits));
+  }
+
+  private static void check(int length, int off, int len, long[] outBits) {
+    if (off < 0 || len < 0 || off > length - len)
+      throw new IndexOutOfBoundsException(
+        String.format("Range [%d, %d + %d) out of bounds for length %d", off, off, len, length));
+    int words = (len + 63) >>> 6;
+    if (outBits.length < words)
+      throw new IllegalArgumentException(
+        String.format("outBits needs %d words for %d numbers, has %d", words, len, outBits.length));
+  }
+
+  /**
+   * Middle of [beg, end) rounded to a multiple of 64.
+   */
+  private static int split(int beg, int end) {
+    return ((beg + end) >>> 1) & ~63;
+  }
+
+  /**
+   * Numbers in[off + beg], ..., in[off + end - 1], beg a multiple of 64.
+   */
+  private static final class LongTask extends RecursiveAction
+  {
+    private static final long serialVersionUID = 1L;
+
+    private final long[] in;
+    private final int off, beg, end;
+    private final long[] outBits;
+
+    LongTask(long[] in, int off, int beg, int end, long[] outBits) {
+      this.in = in;
+      this.off = off;
+      this.beg = beg;
+      this.end = end;
+      this.outBits = outBits;
+    }
+
+    @Override
+    protected void compute() {
+      if (end - beg <= LONG_LEAF) {
+        long[] bits = new long[(end - beg + 63) >>> 6];
+        mrbatch.isPrime(in, off + beg, end - beg, bits);
+        System.arraycopy(bits, 0, outBits, beg >>> 6, bits.length);
+        return;
+      }
+      int mid = split(beg, end);
+      invokeAll(new LongTask(in, off, beg, mid, outBits), new LongTask(in, off, mid, end, outBits));
+    }
+  }
+
+  private static final class BigTask extends RecursiveAction
+  {
+    private static final long serialVersionUID = 1L;
+
+    private final BigInteger[] in;
+    private final int off, beg, end;
+    private final long[] outBits;
+
+    BigTask(BigInteger[] in, int off, int beg, int end, long[] outBits) {
+      this.in = in;
+      this.off = off;
+      this.beg = beg;
+      this.end = end;
+      this.outBits = outBits;
+    }
+
+    @Override
+    protected void compute() {
+      if (end - beg <= BIG_LEAF) {
+        long[] bits = new long[(end - beg + 63) >>> 6];
+        for(int i = 0; i < end - beg; i++)
+          if (Primality.isPrime(in[off + beg + i]))
+            bits[i >>> 6] |= 1L << i;
+        System.arraycopy(bits, 0, outBits, beg >>> 6, bits.length);
+        return;
+      }
+      int mid = split(beg, end);
+      invokeAll(new BigTask(in, off, beg, mid, outBits), new BigTask(in, off, mid, end, outBits));
+    }
+  }
+}
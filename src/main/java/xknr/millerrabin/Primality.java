@@ -1,39 +1,209 @@
 package xknr.millerrabin;
 
 import java.math.BigInteger;
+import java.util.BitSet;
+import java.util.stream.LongStream;
 import static xknr.euler.util.BigInt.*;
 
 public class Primality
 {
-  private static final MillerRabin32 mr32 = new MillerRabin32();
-  private static final MillerRabin64Limited mr64lim = new MillerRabin64Limited();
-  private static final MillerRabin64 mr64 = new MillerRabin64();
-  private static final MillerRabinBig mrbig = new MillerRabinBig();
+  private static final MillerRabinHashed mrhashed = new MillerRabinHashed();
+  private static final MillerRabin64Montgomery mr64mont = new MillerRabin64Montgomery();
+  private static final MillerRabin128 mr128 = new MillerRabin128();
+  private static final MillerRabinBatch mrbatch = new MillerRabinBatch();
+  private static final BailliePSW bpsw = new BailliePSW();
+  private static final Factorizer64 factorizer = new Factorizer64();
+  
+  // Optional, see MappedPrimeTable. Null unless -Dxknr.millerrabin.primeTable=file is set.
+  private static final MappedPrimeTable table = MappedPrimeTable.fromProperty();
+  private static final long TABLE_LIMIT = table == null ? 0 : table.limit();
   
   private static final BigInteger LONG_MAX = B(Long.MAX_VALUE);
+  private static final BigInteger B_MASK64 = B1.shiftLeft(64).subtract(B1);
+  
+  // Counts which engine each call went to, see EngineStats.
+  static final EngineStats stats = new EngineStats("Primality");
   
   public static boolean isPrime(int n) {
-    return mr32.isPrime(n);
+    if (!EngineStats.ENABLED)
+      return route(n);
+    EngineStats.PrimalityTestEvent event = stats.begin();
+    boolean prime = count(n >= 0 && n < TABLE_LIMIT ? EngineStats.Tier.TABLE : EngineStats.Tier.HASHED, route(n));
+    stats.end(event, 32 - Integer.numberOfLeadingZeros(n), prime);
+    return prime;
   }
   
   public static boolean isPrime(long n) {
-    if (n <= MillerRabin32.ARG_LIMIT) {
-      return mr32.isPrime((int)n);
-    } else if (n < MillerRabin64Limited.ARG_LIMIT) { 
-      return mr64lim.isPrime(n);
+    if (!EngineStats.ENABLED)
+      return route(n);
+    EngineStats.PrimalityTestEvent event = stats.begin();
+    EngineStats.Tier tier = n >= 0 && n < TABLE_LIMIT ? EngineStats.Tier.TABLE
+      : n < MillerRabinHashed.HASHED_LIMIT ? EngineStats.Tier.HASHED : EngineStats.Tier.MONTGOMERY;
+    boolean prime = count(tier, route(n));
+    stats.end(event, 64 - Long.numberOfLeadingZeros(n), prime);
+    return prime;
+  }
+  
+  private static boolean route(int n) {
+    if (n >= 0 && n < TABLE_LIMIT)
+      return table.isPrime(n);
+    return mrhashed.isPrime(n);
+  }
+  
+  private static boolean route(long n) {
+    if (n >= 0 && n < TABLE_LIMIT) {
+      // One load from the mapped table.
+      return table.isPrime(n);
+    } else if (n < MillerRabinHashed.HASHED_LIMIT) {
+      // A single hashed witness below 2^32, base 2 and a hashed one above.
+      return mrhashed.isPrime(n);
     } else {  
-      return mr64.isPrime(n);
+      return mr64mont.isPrime(n);
     }
   }
   
+  private static boolean count(EngineStats.Tier tier, boolean prime) {
+    stats.tier(tier);
+    if (prime)
+      stats.prime(tier);
+    return prime;
+  }
+  
+  /**
+   * Tests in[off], ..., in[off + len - 1] and sets bit i of outBits 
+   * (outBits[i >>> 6], bit i & 63) iff in[off + i] is prime.
+   */
+  public static void isPrime(long[] in, int off, int len, long[] outBits) {
+    mrbatch.isPrime(in, off, len, outBits);
+  }
+  
+  /**
+   * Same as isPrime(long[], int, int, long[]), on all cores of the common ForkJoinPool.
+   * See ParallelPrimality.
+   */
+  public static void parallelIsPrime(long[] in, int off, int len, long[] outBits) {
+    ParallelPrimality.isPrime(in, off, len, outBits);
+  }
+  
+  /**
+   * Bit i is set iff values[i] is prime.
+   */
+  public static BitSet parallelIsPrime(long[] values) {
+    long[] outBits = new long[(values.length + 63) >>> 6];
+    ParallelPrimality.isPrime(values, 0, values.length, outBits);
+    return BitSet.valueOf(outBits);
+  }
+  
+  /**
+   * Bit i of outBits is set iff isPrime(in[off + i]), on all cores of the common ForkJoinPool.
+   * The first (len + 63) / 64 words of outBits are overwritten.
+   */
+  public static void parallelIsPrime(BigInteger[] in, int off, int len, long[] outBits) {
+    ParallelPrimality.isPrime(in, off, len, outBits);
+  }
+  
+  public static BitSet parallelIsPrime(BigInteger[] values) {
+    long[] outBits = new long[(values.length + 63) >>> 6];
+    ParallelPrimality.isPrime(values, 0, values.length, outBits);
+    return BitSet.valueOf(outBits);
+  }
+  
+  /**
+   * Same as the long[] version for ints, on all vector lanes.
+   * Needs --add-modules jdk.incubator.vector.
+   */
+  public static void isPrime(int[] in, int off, int len, long[] outBits) {
+    VectorHolder.mr32vec.isPrime(in, off, len, outBits);
+  }
+  
+  /**
+   * Prime factors of n >= 1 into out, increasing, with multiplicity; returns their count.
+   * Factorizer64.MAX_FACTORS entries are enough for any n. See Factorizer64.
+   */
+  public static int factor(long n, long[] out) {
+    return factorizer.factor(n, out);
+  }
+  
+  /**
+   * Smallest prime > n, see NextPrime.
+   * @throws ArithmeticException if there is none in the long range
+   */
+  public static long nextPrime(long n) {
+    return NextPrime.next(n);
+  }
+  
+  /**
+   * Largest prime < n, see NextPrime.
+   * @throws IllegalArgumentException if n <= 2
+   */
+  public static long prevPrime(long n) {
+    return NextPrime.prev(n);
+  }
+  
+  public static BigInteger nextPrime(BigInteger n) {
+    return NextPrime.next(n);
+  }
+  
+  public static BigInteger prevPrime(BigInteger n) {
+    return NextPrime.prev(n);
+  }
+  
+  /**
+   * Primes p with lo <= p < hi in increasing order, see SegmentedSieve.
+   * Call parallel() on the result to sieve segments in several threads.
+   */
+  public static LongStream primesInRange(long lo, long hi) {
+    return SegmentedSieve.primesInRange(lo, hi);
+  }
+  
+  // Loads the Vector API only when the int[] version is used.
+  private static class VectorHolder
+  {
+    private static final MillerRabin32Vector mr32vec = new MillerRabin32Vector();
+  }
+  
+  /**
+   * n = high * 2^64 + low, low unsigned, 0 <= high.
+   * Same as the BigInteger version, without a BigInteger below MillerRabinBig.LIMIT13.
+   */
+  public static boolean isPrime(long high, long low) {
+    if (high == 0 && low >= 0) {
+      return isPrime(low);
+    } else if (MillerRabin128.inRange(high, low)) {
+      if (!EngineStats.ENABLED)
+        return mr128.isPrime(high, low);
+      EngineStats.PrimalityTestEvent event = stats.begin();
+      boolean prime = count(EngineStats.Tier.MR128, mr128.isPrime(high, low));
+      stats.end(event, 128 - Long.numberOfLeadingZeros(high), prime);
+      return prime;
+    } else if (high < 0) {
+      throw new IllegalArgumentException("n >= 2^127");
+    } else {
+      return isPrime(B(high).shiftLeft(64).or(B(low).and(B_MASK64)));
+    }
+  }
+
+  /**
+   * Deterministic for n < MillerRabinBig.LIMIT13.
+   * At and above it the result comes from BailliePSW, which is a probable prime test.
+   */
   public static boolean isPrime(BigInteger n) {
-    if (n.compareTo(LONG_MAX) <= 0) {
+    if (n.compareTo(LONG_MAX) <= 0)
       return isPrime(n.longValueExact());
-    } else if (n.compareTo(MillerRabinBig.ARG_LIMIT) <= 0) { 
-      return mrbig.isPrime(n);
+    if (!EngineStats.ENABLED)
+      return route(n);
+    EngineStats.PrimalityTestEvent event = stats.begin();
+    EngineStats.Tier tier = n.compareTo(MillerRabinBig.ARG_LIMIT) <= 0 ? EngineStats.Tier.MR128 : EngineStats.Tier.BAILLIE_PSW;
+    boolean prime = count(tier, route(n));
+    stats.end(event, n.bitLength(), prime);
+    return prime;
+  }
+  
+  private static boolean route(BigInteger n) {
+    if (n.compareTo(MillerRabinBig.ARG_LIMIT) <= 0) { 
+      return mr128.isPrime(n);
     } else { 
-      throw new UnsupportedOperationException(
-        String.format("n > %s not supported.", MillerRabinBig.ARG_LIMIT));
+      return bpsw.isPrime(n);
     }
   }
 }
@@ -0,0 +1,151 @@
+package xknr.millerrabin;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongPredicate;
+
+/**
+ * Results of a long primality test, for streams that ask about the same n again and again.
+ * new PrimalityCache(maxBytes) sits in front of Primality.isPrime(long).
+ *
+ * The table is set associative: n hashes to a bucket of 8 slots, one cache line.
+ * A slot is one long, n with the result in the sign bit (0 is empty), so it is
+ * written and read in one access and never needs a lock: a reader sees either
+ * the whole entry or another one, whose n does not match. Two threads missing
+ * on the same bucket may overwrite each other's entry, which costs only a later miss.
+ *
+ * Eviction is CLOCK within the bucket. A hit sets the reference bit of its slot,
+ * an insert into a full bucket moves the hand over the slots, clearing set bits,
+ * and replaces the first slot whose bit was clear. Reference bits are plain bytes,
+ * a lost update only makes eviction less exact.
+ *
+ * Hits and misses are counted in LongAdders. n <= 0 is not cached.
+ */
+public final class PrimalityCache
+{
+  static final int WAYS = 8;
+  // Slot, reference bit and hand bytes per bucket.
+  static final int BUCKET_BYTES = WAYS * Long.BYTES + 2;
+
+  private static final long PRIME = Long.MIN_VALUE;
+
+  private final LongPredicate test;
+  private final AtomicLongArray slots;
+  // Bit w is the reference bit of slot w of the bucket.
+  private final byte[] referenced;
+  private final byte[] hands;
+  private final int bucketShift;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  /**
+   * A cache for Primality.isPrime(long) of at most maxBytes, rounded down to a power of two buckets.
+   */
+  public PrimalityCache(long maxBytes) {
+    this(maxBytes, Primality::isPrime);
+  }
+
+  public PrimalityCache(long maxBytes, LongPredicate test) {
+    if (maxBytes < BUCKET_BYTES)
+      throw new IllegalArgumentException(String.format("maxBytes %d below one bucket, %d", maxBytes, BUCKET_BYTES));
+    long buckets = Long.highestOneBit(Math.min(maxBytes / BUCKET_BYTES, 1 << 27));
+    this.test = test;
+    this.slots = new AtomicLongArray((int)buckets * WAYS);
+    this.referenced = new byte[(int)buckets];
+    this.hands = new byte[(int)buckets];
+    this.bucketShift = 64 - Long.numberOfTrailingZeros(buckets);
+  }
+
+  public boolean isPrime(long n) {
+    if (n <= 0)
+      return test.test(n);
+    int bucket = bucket(n);
+    int base = bucket * WAYS;
+    for(int w = 0; w < WAYS; w++) {
+      long e = slots.getAcquire(base + w);
+      if ((e & ~PRIME) == n) {
+        if ((referenced[bucket] & (1 << w)) == 0)
+          referenced[bucket] |= (byte)(1 << w);
+        hits.increment();
+        return e < 0;
+      }
+    }
+    misses.increment();
+    boolean prime = test.test(n);
+    insert(bucket, base, prime ? n | PRIME : n);
+    return prime;
+  }
+
+  private void insert(int bucket, int base, long entry) {
+    for(int w = 0; w < WAYS; w++) {
+      if (slots.getAcquire(base + w) == 0) {
+        slots.setRelease(base + w, entry);
+        return;
+      }
+    }
+    // Full, at most one round clears every bit.
+    int hand = hands[bucket];
+    int refs = referenced[bucket];
+    while((refs & (1 << hand)) != 0) {
+      refs &= ~(1 << hand);
+      hand = (hand + 1) & (WAYS - 1);
+    }
+    referenced[bucket] = (byte)refs;
+    hands[bucket] = (byte)((hand + 1) & (WAYS - 1));
+    slots.setRelease(base + hand, entry);
+    evictions.increment();
+  }
+
+  private int bucket(long n) {
+    return bucketShift == 64 ? 0 : (int)((n * 0x9E3779B97F4A7C15L) >>> bucketShift);
+  }
+
+  /**
+   * Number of results the cache can hold.
+   */
+  public int capacity() {
+    return slots.length();
+  }
+
+  public long hits() {
+    return hits.sum();
+  }
+
+  public long misses() {
+    return misses.sum();
+  }
+
+  public long evictions() {
+    return evictions.sum();
+  }
+
+  public double hitRate() {
+    long h = hits(), total = h + misses();
+    return total == 0 ? 0 : (double)h / total;
+  }
+
+  public void resetStats() {
+    hits.reset();
+    misses.reset();
+    evictions.reset();
+  }
+
+  /**
+   * Drops every entry. Not atomic with respect to concurrent calls, which may put some back.
+   */
+  public void clear() {
+    for(int i = 0; i < slots.length(); i++)
+      slots.setRelease(i, 0);
+    Arrays.fill(referenced, (byte)0);
+    Arrays.fill(hands, (byte)0);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("PrimalityCache: capacity %d, hits %d, misses %d, evictions %d, hit rate %.3f",
+      capacity(), hits(), misses(), evictions(), hitRate());
+  }
+}
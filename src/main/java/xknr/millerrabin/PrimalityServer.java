@@ -0,0 +1,314 @@
+package xknr.millerrabin;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Primality over HTTP on the loopback interface, so that several processes share one warm JVM.
+ *
+ * Plain text, numbers in decimal (or 2^k, as in MillerRabinExhaustive):
+ *   GET  /isPrime?n=97          true or false
+ *   POST /batch, numbers separated by spaces, commas or newlines in the body:
+ *                               true or false per line
+ *   GET  /range?from=a&to=b     the primes in [a, b), one per line, b - a <= MAX_RANGE
+ *   GET  /stats                 latency percentiles per operation, and batch sizes
+ *
+ * Numbers have at most MAX_BITS bits and a /batch body at most MAX_BODY bytes, larger requests
+ * get 400 before any work is done on them.
+ *
+ * Every request runs on a virtual thread of its own. Requests for at most COALESCE_LIMIT longs
+ * do not test them on that thread: they are queued, and dispatcher threads, one per core, take
+ * whatever has queued up, at most MAX_BATCH numbers, and test it in one MillerRabinBatch call.
+ * A dispatcher never waits for more work, so an idle server adds no delay, and under load the
+ * batches grow by themselves. Larger batches and BigIntegers are tested on the request thread.
+ *
+ * Usage (./gradlew runServer --args="port=8091"), stops with the JVM.
+ */
+public final class PrimalityServer
+{
+  static final int COALESCE_LIMIT = 256;
+  static final int MAX_BATCH = 4096;
+  static final long MAX_RANGE = 1L << 24;
+  static final int MAX_BITS = 4096;
+  static final int MAX_BODY = 1 << 20;
+  // Decimal digits of 2^MAX_BITS.
+  private static final int MAX_DIGITS = (int)(MAX_BITS * Math.log10(2)) + 1;
+
+  private static final MillerRabinBatch mrbatch = new MillerRabinBatch();
+
+  private final HttpServer server;
+  private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+  private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+  private final List<Thread> dispatchers = new ArrayList<>();
+
+  private final LatencyHistogram singleLatency = new LatencyHistogram();
+  private final LatencyHistogram batchLatency = new LatencyHistogram();
+  private final LatencyHistogram rangeLatency = new LatencyHistogram();
+  private final LongAdder engineCalls = new LongAdder();
+  private final LongAdder coalescedNumbers = new LongAdder();
+
+  private PrimalityServer(HttpServer server) {
+    this.server = server;
+  }
+
+  public static void main(String[] args) throws IOException {
+    Map<String, String> opts = new HashMap<>();
+    for(String arg : args) {
+      int eq = arg.indexOf('=');
+      if (eq < 0)
+        throw new IllegalArgumentException("Expected name=value: " + arg);
+      opts.put(arg.substring(0, eq), arg.substring(eq + 1));
+    }
+    PrimalityServer server = start(Integer.parseInt(opts.getOrDefault("port", "8091")));
+    System.out.format("Listening on http://%s:%d/%n", InetAddress.getLoopbackAddress().getHostAddress(), server.port());
+  }
+
+  /**
+   * Listens on port of the loopback interface, 0 for any free port.
+   */
+  public static PrimalityServer start(int port) throws IOException {
+    HttpServer http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+    PrimalityServer server = new PrimalityServer(http);
+    http.setExecutor(server.executor);
+    http.createContext("/isPrime", e -> server.handle(e, "GET", server.singleLatency, server::single));
+    http.createContext("/batch", e -> server.handle(e, "POST", server.batchLatency, server::batch));
+    http.createContext("/range", e -> server.handle(e, "GET", server.rangeLatency, server::range));
+    http.createContext("/stats", e -> server.handle(e, "GET", null, x -> server.stats()));
+    for(int i = 0; i < Runtime.getRuntime().availableProcessors(); i++) {
+      Thread t = new Thread(server::dispatch, "PrimalityServer-dispatcher-" + i);
+      t.setDaemon(true);
+      server.dispatchers.add(t);
+      t.start();
+    }
+    http.start();
+    return server;
+  }
+
+  public int port() {
+    return server.getAddress().getPort();
+  }
+
+  /**
+   * Stops accepting requests and ends the dispatchers.
+   */
+  public void stop() {
+    server.stop(0);
+    executor.shutdownNow();
+    for(Thread t : dispatchers)
+      t.interrupt();
+  }
+
+  private interface Operation
+  {
+    String apply(HttpExchange exchange) throws IOException;
+  }
+
+  private void handle(HttpExchange exchange, String method, LatencyHistogram latency, Operation op) throws IOException {
+    long t0 = System.nanoTime();
+    int status = 200;
+    String body;
+    try {
+      if (!exchange.getRequestMethod().equals(method)) {
+        status = 405;
+        body = "Expected " + method + "\n";
+      } else {
+        body = op.apply(exchange);
+      }
+    } catch(IllegalArgumentException | ArithmeticException e) {
+      // NumberFormatException included.
+      status = 400;
+      body = e.getMessage() + "\n";
+    } catch(RuntimeException e) {
+      status = 500;
+      body = e + "\n";
+    }
+    byte[] bytes = body.getBytes(StandardCharsets.US_ASCII);
+    exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=us-ascii");
+    exchange.sendResponseHeaders(status, bytes.length);
+    try(OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+    if (latency != null)
+      latency.record(System.nanoTime() - t0);
+  }
+
+  private String single(HttpExchange exchange) {
+    String n = query(exchange).get("n");
+    if (n == null)
+      throw new IllegalArgumentException("Missing n");
+    BigInteger big = number(n);
+    boolean prime = big.bitLength() < 64 ? (coalesce(new long[] {big.longValue()})[0] & 1) != 0 : Primality.isPrime(big);
+    return prime + "\n";
+  }
+
+  private String batch(HttpExchange exchange) throws IOException {
+    byte[] body = exchange.getRequestBody().readNBytes(MAX_BODY + 1);
+    if (body.length > MAX_BODY)
+      throw new IllegalArgumentException(String.format("Body above %d bytes", MAX_BODY));
+    String text = new String(body, StandardCharsets.US_ASCII).trim();
+    String[] words = text.isEmpty() ? new String[0] : text.split("[\\s,]+");
+    BigInteger[] bigs = new BigInteger[words.length];
+    long[] values = new long[words.length];
+    boolean allLong = true;
+    for(int i = 0; i < words.length; i++) {
+      bigs[i] = number(words[i]);
+      allLong &= bigs[i].bitLength() < 64;
+      values[i] = bigs[i].longValue();
+    }
+    long[] bits;
+    if (!allLong) {
+      bits = new long[(words.length + 63) >>> 6];
+      for(int i = 0; i < words.length; i++)
+        if (Primality.isPrime(bigs[i]))
+          bits[i >>> 6] |= 1L << i;
+    } else if (words.length <= COALESCE_LIMIT) {
+      bits = coalesce(values);
+    } else {
+      bits = new long[(words.length + 63) >>> 6];
+      Primality.isPrime(values, 0, values.length, bits);
+    }
+    StringBuilder sb = new StringBuilder(6 * words.length);
+    for(int i = 0; i < words.length; i++)
+      sb.append((bits[i >>> 6] & (1L << i)) != 0).append('\n');
+    return sb.toString();
+  }
+
+  private String range(HttpExchange exchange) {
+    Map<String, String> q = query(exchange);
+    if (!q.containsKey("from") || !q.containsKey("to"))
+      throw new IllegalArgumentException("Expected from and to");
+    long lo = number(q.get("from")).longValueExact();
+    long hi = number(q.get("to")).longValueExact();
+    if (lo < 0 || lo > hi || hi - lo > MAX_RANGE)
+      throw new IllegalArgumentException(String.format("Range [%d, %d) not within 0 and %d wide", lo, hi, MAX_RANGE));
+    StringBuilder sb = new StringBuilder();
+    for(PrimitiveIterator.OfLong it = Primality.primesInRange(lo, hi).iterator(); it.hasNext(); )
+      sb.append(it.nextLong()).append('\n');
+    return sb.toString();
+  }
+
+  String stats() {
+    long calls = engineCalls.sum(), numbers = coalescedNumbers.sum();
+    return String.format("isPrime: %s%nbatch: %s%nrange: %s%ncoalesced: %d numbers in %d engine calls, %.1f per call%n",
+      singleLatency, batchLatency, rangeLatency, numbers, calls, calls == 0 ? 0.0 : (double)numbers / calls);
+  }
+
+  /**
+   * Rejects numbers above MAX_BITS bits before parsing them, a 2^k by k and a decimal by its digits.
+   */
+  private static BigInteger number(String s) {
+    String digits = s.replace("_", "");
+    boolean tooLong = digits.startsWith("2^")
+      ? digits.length() > 6 || Integer.parseInt(digits.substring(2)) >= MAX_BITS
+      : digits.length() > MAX_DIGITS + 1;
+    if (tooLong)
+      throw new IllegalArgumentException(String.format("Above %d bits: %.40s", MAX_BITS, s));
+    BigInteger n = MillerRabinExhaustive.number(s);
+    if (n.signum() < 0)
+      throw new IllegalArgumentException("Negative: " + s);
+    if (n.bitLength() > MAX_BITS)
+      throw new IllegalArgumentException(String.format("Above %d bits: %.40s", MAX_BITS, s));
+    return n;
+  }
+
+  private static Map<String, String> query(HttpExchange exchange) {
+    Map<String, String> q = new HashMap<>();
+    String query = exchange.getRequestURI().getQuery();
+    if (query != null) {
+      for(String pair : query.split("&")) {
+        int eq = pair.indexOf('=');
+        if (eq > 0)
+          q.put(pair.substring(0, eq), pair.substring(eq + 1));
+      }
+    }
+    return q;
+  }
+
+  /**
+   * Numbers of one request waiting for a dispatcher.
+   */
+  private static final class Pending
+  {
+    final long[] values;
+    final CompletableFuture<long[]> bits = new CompletableFuture<>();
+
+    Pending(long[] values) {
+      this.values = values;
+    }
+  }
+
+  /**
+   * Bits of values as by Primality.isPrime(long[], ...), tested with those of concurrent requests.
+   */
+  private long[] coalesce(long[] values) {
+    Pending p = new Pending(values);
+    queue.add(p);
+    try {
+      return p.bits.get();
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    } catch(ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException)
+        throw (RuntimeException)e.getCause();
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  private void dispatch() {
+    long[] values = new long[MAX_BATCH + COALESCE_LIMIT];
+    long[] bits = new long[values.length >>> 6];
+    List<Pending> taken = new ArrayList<>();
+    while(!Thread.currentThread().isInterrupted()) {
+      taken.clear();
+      int count = 0;
+      try {
+        Pending p = queue.take();
+        // Whatever else is queued, up to MAX_BATCH numbers.
+        do {
+          taken.add(p);
+          System.arraycopy(p.values, 0, values, count, p.values.length);
+          count += p.values.length;
+        } while(count < MAX_BATCH && (p = queue.poll()) != null);
+      } catch(InterruptedException e) {
+        break;
+      }
+      try {
+        mrbatch.isPrime(values, 0, count, bits);
+      } catch(RuntimeException e) {
+        for(Pending p : taken)
+          p.bits.completeExceptionally(e);
+        continue;
+      }
+      engineCalls.increment();
+      coalescedNumbers.add(count);
+      int off = 0;
+      for(Pending p : taken) {
+        long[] result = new long[(p.values.length + 63) >>> 6];
+        for(int i = 0; i < p.values.length; i++, off++)
+          if ((bits[off >>> 6] & (1L << off)) != 0)
+            result[i >>> 6] |= 1L << i;
+        p.bits.complete(result);
+      }
+    }
+  }
+}
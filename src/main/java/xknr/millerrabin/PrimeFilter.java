@@ -0,0 +1,402 @@
+package xknr.millerrabin;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Filters a file of numbers down to its primes, for offline runs over hundreds of millions of numbers.
+ *
+ * The input is either decimal text, numbers being runs of digits with an optional '-' in front and
+ * anything else separating them, or unsigned 64 bit little endian binary. It is mapped with
+ * FileChannel.map in regions of REGION_BYTES, which are cut into blocks of about BLOCK_BYTES
+ * at separators. Blocks are parsed and tested on a pool of threads while the calling thread
+ * maps the next ones and writes finished blocks in input order, with at most 2 blocks per thread
+ * in flight. A block is copied out of the map in one bulk get and its digits parsed straight
+ * into longs, without Strings. A BigInteger is only made for a decimal number above
+ * Long.MAX_VALUE, and a binary number with the top bit set is tested as a 128 bit number
+ * (Primality.isPrime(long, long)). Longs go through MillerRabinBatch.
+ *
+ * The output is either the primes, in the input format (decimal ones as their bytes in the input,
+ * one per line), or one bit per input number, bit i of byte i / 8 set iff number i is prime.
+ * It is written through a direct buffer of OUT_BYTES.
+ *
+ * Usage (./gradlew filterPrimes --args="..."):
+ *   in=numbers.txt out=primes.txt format=decimal|binary write=primes|bits threads=8
+ */
+public final class PrimeFilter
+{
+  public enum Format { DECIMAL, BINARY }
+  public enum Output { PRIMES, BITS }
+
+  static final int REGION_BYTES = 1 << 30;
+  static final int BLOCK_BYTES = 1 << 20;
+  static final int OUT_BYTES = 1 << 20;
+
+  // Long.MAX_VALUE / 10, a larger value followed by a digit does not fit.
+  private static final long DIGITS_LIMIT = Long.MAX_VALUE / 10;
+
+  private static final MillerRabinBatch mrbatch = new MillerRabinBatch();
+
+  private final Format format;
+  private final Output output;
+  private final int threads;
+  private final int regionBytes;
+  private final int blockBytes;
+
+  private long numbers;
+  private long primes;
+
+  public PrimeFilter(Format format, Output output, int threads) {
+    this(format, output, threads, REGION_BYTES, BLOCK_BYTES);
+  }
+
+  PrimeFilter(Format format, Output output, int threads, int regionBytes, int blockBytes) {
+    if (threads < 1)
+      throw new IllegalArgumentException("threads < 1: " + threads);
+    this.format = format;
+    this.output = output;
+    this.threads = threads;
+    // Binary blocks hold whole numbers.
+    this.regionBytes = format == Format.BINARY ? regionBytes & ~7 : regionBytes;
+    this.blockBytes = format == Format.BINARY ? Math.max(8, blockBytes & ~7) : blockBytes;
+  }
+
+  public static void main(String[] args) throws IOException {
+    Map<String, String> opts = new HashMap<>();
+    for(String arg : args) {
+      int eq = arg.indexOf('=');
+      if (eq < 0)
+        throw new IllegalArgumentException("Expected name=value: " + arg);
+      opts.put(arg.substring(0, eq), arg.substring(eq + 1));
+    }
+    if (!opts.containsKey("in"))
+      throw new IllegalArgumentException("Missing in=<file>");
+    Path in = Paths.get(opts.get("in"));
+    Format format = Format.valueOf(opts.getOrDefault("format", "decimal").toUpperCase());
+    Output output = Output.valueOf(opts.getOrDefault("write", "primes").toUpperCase());
+    Path out = Paths.get(opts.getOrDefault("out", output == Output.BITS ? "primes.bits" : "primes.out"));
+    int threads = Integer.parseInt(opts.getOrDefault("threads", "" + Runtime.getRuntime().availableProcessors()));
+
+    long t0 = System.nanoTime();
+    PrimeFilter filter = new PrimeFilter(format, output, threads);
+    filter.run(in, out);
+    double seconds = (System.nanoTime() - t0) / 1e9;
+    System.out.format("%,d numbers, %,d primes, written to %s, %.1f s, %,.0f numbers/s%n",
+      filter.numbers(), filter.primes(), out, seconds, filter.numbers() / seconds);
+  }
+
+  /**
+   * Numbers read by the last run.
+   */
+  public long numbers() {
+    return numbers;
+  }
+
+  /**
+   * Primes among them.
+   */
+  public long primes() {
+    return primes;
+  }
+
+  /**
+   * Filters in into out, which is replaced.
+   * @throws IOException also if a binary in is not a whole number of longs
+   */
+  public void run(Path in, Path out) throws IOException {
+    numbers = 0;
+    primes = 0;
+    ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+      Thread t = new Thread(r, "PrimeFilter");
+      t.setDaemon(true);
+      return t;
+    });
+    try(FileChannel inCh = FileChannel.open(in, StandardOpenOption.READ);
+        FileChannel outCh = FileChannel.open(out, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+          StandardOpenOption.TRUNCATE_EXISTING)) {
+      long size = inCh.size();
+      if (format == Format.BINARY && (size & 7) != 0)
+        throw new IOException(String.format("%s has %d bytes, not a multiple of 8", in, size));
+      Writer writer = new Writer(outCh);
+      ArrayDeque<Future<Block>> inFlight = new ArrayDeque<>();
+      for(long pos = 0; pos < size; ) {
+        MappedByteBuffer region = inCh.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(regionBytes, size - pos));
+        region.order(ByteOrder.LITTLE_ENDIAN);
+        boolean last = pos + region.limit() == size;
+        int end = last ? region.limit() : cut(region, region.limit());
+        if (end == 0)
+          throw new IOException(String.format("No separator in %d bytes from %d of %s", region.limit(), pos, in));
+        for(int from = 0; from < end; ) {
+          int to = from + blockBytes >= end ? end : cut(region, from + blockBytes);
+          if (to <= from)
+            to = end;
+          int f = from, t = to;
+          inFlight.add(executor.submit(() -> format == Format.DECIMAL ? decimal(region, f, t) : binary(region, f, t)));
+          while(inFlight.size() >= 2 * threads)
+            writer.write(take(inFlight));
+          from = to;
+        }
+        pos += end;
+      }
+      while(!inFlight.isEmpty())
+        writer.write(take(inFlight));
+      writer.finish();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static Block take(ArrayDeque<Future<Block>> inFlight) {
+    try {
+      return inFlight.poll().get();
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    } catch(ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException)
+        throw (RuntimeException)e.getCause();
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  /**
+   * The largest position <= end just after a separator, for decimal input, so that no number,
+   * sign included, spans two blocks. 0 if there is none. Binary blocks end anywhere.
+   */
+  private int cut(MappedByteBuffer region, int end) {
+    if (format == Format.BINARY)
+      return end;
+    while(end > 0 && !isSeparator(region.get(end - 1)))
+      end--;
+    return end;
+  }
+
+  private static boolean isDigit(byte c) {
+    return c >= '0' && c <= '9';
+  }
+
+  private static boolean isSeparator(byte c) {
+    return !isDigit(c) && c != '-';
+  }
+
+  /**
+   * Result of one block: bit i of bits for number i, and the primes to write.
+   */
+  private static final class Block
+  {
+    long[] bits;
+    int count;
+    int primeCount;
+    byte[] primes;
+  }
+
+  private Block decimal(MappedByteBuffer region, int from, int to) {
+    // One bulk copy, the loops below then read a plain array.
+    byte[] text = new byte[to - from];
+    region.get(from, text);
+    long[] values = new long[1 << 10];
+    // Position of each number in text, needed to copy the primes.
+    int[] starts = output == Output.PRIMES ? new int[values.length] : null;
+    int[] wide = new int[4];
+    BigInteger[] wideValues = new BigInteger[4];
+    int count = 0, wideCount = 0;
+
+    for(int i = 0; i < text.length; ) {
+      if (!isDigit(text[i])) {
+        i++;
+        continue;
+      }
+      int start = i;
+      boolean negative = i > 0 && text[i - 1] == '-';
+      long v = 0;
+      boolean fits = true;
+      for(; i < text.length && isDigit(text[i]); i++) {
+        int d = text[i] - '0';
+        if (v >= DIGITS_LIMIT && (v > DIGITS_LIMIT || d > 7))
+          fits = false;
+        v = 10 * v + d;
+      }
+      if (count == values.length) {
+        values = Arrays.copyOf(values, 2 * count);
+        if (starts != null)
+          starts = Arrays.copyOf(starts, 2 * count);
+      }
+      if (starts != null)
+        starts[count] = start;
+      if (negative) {
+        values[count] = -1;
+      } else if (fits) {
+        values[count] = v;
+      } else {
+        // Above Long.MAX_VALUE, tested after the batch.
+        values[count] = 0;
+        if (wideCount == wide.length) {
+          wide = Arrays.copyOf(wide, 2 * wideCount);
+          wideValues = Arrays.copyOf(wideValues, 2 * wideCount);
+        }
+        wide[wideCount] = count;
+        wideValues[wideCount++] = new BigInteger(new String(text, start, i - start, StandardCharsets.US_ASCII));
+      }
+      count++;
+    }
+
+    Block block = test(values, count);
+    for(int w = 0; w < wideCount; w++)
+      if (Primality.isPrime(wideValues[w]))
+        block.bits[wide[w] >>> 6] |= 1L << wide[w];
+    count(block);
+
+    if (output == Output.PRIMES) {
+      int bytes = 0;
+      for(int i = nextSetBit(block, 0); i >= 0; i = nextSetBit(block, i + 1))
+        bytes += digits(text, starts[i]) + 1;
+      byte[] out = new byte[bytes];
+      int pos = 0;
+      for(int i = nextSetBit(block, 0); i >= 0; i = nextSetBit(block, i + 1)) {
+        int len = digits(text, starts[i]);
+        System.arraycopy(text, starts[i], out, pos, len);
+        pos += len;
+        out[pos++] = '\n';
+      }
+      block.primes = out;
+    }
+    return block;
+  }
+
+  private static int digits(byte[] text, int start) {
+    int i = start;
+    while(i < text.length && isDigit(text[i]))
+      i++;
+    return i - start;
+  }
+
+  private Block binary(MappedByteBuffer region, int from, int to) {
+    int count = (to - from) >>> 3;
+    long[] values = new long[count];
+    for(int i = 0; i < count; i++)
+      values[i] = region.getLong(from + 8 * i);
+
+    // The batch rejects the negative ones, which are unsigned n >= 2^63.
+    Block block = test(values, count);
+    for(int i = 0; i < count; i++)
+      if (values[i] < 0 && Primality.isPrime(0, values[i]))
+        block.bits[i >>> 6] |= 1L << i;
+    count(block);
+
+    if (output == Output.PRIMES) {
+      ByteBuffer out = ByteBuffer.allocate(8 * block.primeCount).order(ByteOrder.LITTLE_ENDIAN);
+      for(int i = nextSetBit(block, 0); i >= 0; i = nextSetBit(block, i + 1))
+        out.putLong(values[i]);
+      block.primes = out.array();
+    }
+    return block;
+  }
+
+  private static Block test(long[] values, int count) {
+    Block block = new Block();
+    block.count = count;
+    block.bits = new long[(count + 63) >>> 6];
+    mrbatch.isPrime(values, 0, count, block.bits);
+    return block;
+  }
+
+  private static void count(Block block) {
+    for(long w : block.bits)
+      block.primeCount += Long.bitCount(w);
+  }
+
+  private static int nextSetBit(Block block, int from) {
+    int w = from >>> 6;
+    if (w >= block.bits.length)
+      return -1;
+    long word = block.bits[w] & (-1L << from);
+    while(word == 0) {
+      if (++w == block.bits.length)
+        return -1;
+      word = block.bits[w];
+    }
+    return (w << 6) + Long.numberOfTrailingZeros(word);
+  }
+
+  /**
+   * Appends blocks in order to the output through one direct buffer.
+   */
+  private final class Writer
+  {
+    private final FileChannel out;
+    private final ByteBuffer buf = ByteBuffer.allocateDirect(OUT_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    // Bits not yet written, the low pendingBits of pending.
+    private long pending;
+    private int pendingBits;
+
+    Writer(FileChannel out) {
+      this.out = out;
+    }
+
+    void write(Block block) throws IOException {
+      numbers += block.count;
+      primes += block.primeCount;
+      if (output == Output.PRIMES) {
+        for(int pos = 0; pos < block.primes.length; ) {
+          if (!buf.hasRemaining())
+            flush();
+          int len = Math.min(buf.remaining(), block.primes.length - pos);
+          buf.put(block.primes, pos, len);
+          pos += len;
+        }
+        return;
+      }
+      for(int w = 0; w < block.bits.length; w++) {
+        long word = block.bits[w];
+        int bits = Math.min(64, block.count - 64 * w);
+        pending |= word << pendingBits;
+        if (pendingBits + bits >= 64) {
+          putLong(pending);
+          pending = pendingBits == 0 ? 0 : word >>> (64 - pendingBits);
+          pendingBits += bits - 64;
+        } else {
+          pendingBits += bits;
+        }
+      }
+    }
+
+    private void putLong(long v) throws IOException {
+      if (buf.remaining() < Long.BYTES)
+        flush();
+      buf.putLong(v);
+    }
+
+    void finish() throws IOException {
+      for(; pendingBits > 0; pendingBits -= 8) {
+        if (!buf.hasRemaining())
+          flush();
+        buf.put((byte)pending);
+        pending >>>= 8;
+      }
+      flush();
+    }
+
+    private void flush() throws IOException {
+      buf.flip();
+      while(buf.hasRemaining())
+        out.write(buf);
+      buf.clear();
+    }
+  }
+}
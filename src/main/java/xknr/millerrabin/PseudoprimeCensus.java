@@ -0,0 +1,259 @@
+package xknr.millerrabin;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.LongStream;
+
+/**
+ * All strong pseudoprimes to a base set in [lo, hi), and witness sets checked against them.
+ *
+ * A composite n fools a witness set W only if it is a strong pseudoprime to every base in W.
+ * So if the bases of a census are a subset of W, the first n of the census that also passes
+ * the other bases of W is the first n in [lo, hi) for which W fails, and if there is none,
+ * W is valid in all of [lo, hi). A census to base 2 up to 2^32 has 2314 entries, 7.5 KB.
+ *
+ * Composites come from a ChunkSieve, not from a strong test, so no witness table
+ * is assumed. Chunks are sieved and tested in parallel on the common pool.
+ * A base a with n | a rejects composite n, as in the engines, which decide n | a by the
+ * prime factors of a (WitnessPlan). Their trial division, by the primes up to 47 and the
+ * bitmap below 2^16, is not assumed: the census is the same with or without it.
+ *
+ * Usage (./gradlew runCensus --args="..."):
+ *   census from=0 to=2^32 bases=2 out=spsp2.bin
+ *   validate in=spsp2.bin witnesses=2,3,5,7
+ */
+public final class PseudoprimeCensus
+{
+  // "SPSP"
+  private static final int MAGIC = 0x53505350;
+  private static final int VERSION = 1;
+
+  // Numbers per chunk, 256 KB of odd number bits.
+  static final long CHUNK = 1L << 22;
+
+  public final long lo;
+  public final long hi;
+  private final long[] bases;
+  private final long[] pseudoprimes;
+
+  private PseudoprimeCensus(long lo, long hi, long[] bases, long[] pseudoprimes) {
+    this.lo = lo;
+    this.hi = hi;
+    this.bases = bases;
+    this.pseudoprimes = pseudoprimes;
+  }
+
+  public static void main(String[] args) throws IOException {
+    Map<String, String> opts = new HashMap<>();
+    for(int i = 1; i < args.length; i++) {
+      int eq = args[i].indexOf('=');
+      if (eq < 0)
+        throw new IllegalArgumentException("Expected name=value: " + args[i]);
+      opts.put(args[i].substring(0, eq), args[i].substring(eq + 1));
+    }
+    String mode = args.length > 0 ? args[0] : "";
+    if (mode.equals("census")) {
+      long lo = MillerRabinExhaustive.number(opts.getOrDefault("from", "0")).longValueExact();
+      long hi = MillerRabinExhaustive.number(opts.getOrDefault("to", "2^32")).longValueExact();
+      long[] bases = parseBases(opts.getOrDefault("bases", "2"));
+      Path out = Paths.get(opts.getOrDefault("out", "spsp.bin"));
+      long t0 = System.nanoTime();
+      PseudoprimeCensus census = census(lo, hi, bases);
+      census.write(out);
+      System.out.format("%d strong pseudoprimes to %s in [%d, %d) written to %s, %.1f s%n",
+        census.size(), Arrays.toString(bases), lo, hi, out, (System.nanoTime() - t0) / 1e9);
+    } else if (mode.equals("validate")) {
+      PseudoprimeCensus census = read(Paths.get(opts.getOrDefault("in", "spsp.bin")));
+      long[] witnesses = parseBases(opts.getOrDefault("witnesses", "2"));
+      long first = census.firstFailure(witnesses);
+      if (first < 0) {
+        System.out.format("%s is valid for all n in [%d, %d)%n", Arrays.toString(witnesses), census.lo, census.hi);
+      } else {
+        System.out.format("%s first fails at n = %d%n", Arrays.toString(witnesses), first);
+      }
+    } else {
+      throw new IllegalArgumentException("Unknown mode " + mode + ", expected census or validate");
+    }
+  }
+
+  /**
+   * Odd composites n in [lo, hi) that pass the strong test to every base, sorted.
+   */
+  public static PseudoprimeCensus census(long lo, long hi, long[] bases) {
+    if (lo < 0 || lo >= hi)
+      throw new IllegalArgumentException(String.format("Empty or negative range [%d, %d)", lo, hi));
+    if (bases.length == 0)
+      throw new IllegalArgumentException("No bases");
+    checkBases(bases);
+    ChunkSieve sieve = new ChunkSieve(hi - 1);
+    long chunks = (hi - lo - 1) / CHUNK + 1;
+    long[][] found = LongStream.range(0, chunks).parallel()
+      .mapToObj(c -> chunk(sieve, lo + c * CHUNK, chunkLast(lo + c * CHUNK, hi), bases))
+      .toArray(long[][]::new);
+    return new PseudoprimeCensus(lo, hi, bases.clone(), concat(found));
+  }
+
+  /**
+   * Last n of the chunk starting at first < hi, without overflow near Long.MAX_VALUE.
+   */
+  static long chunkLast(long first, long hi) {
+    return hi - 1 - first < CHUNK ? hi - 1 : first + CHUNK - 1;
+  }
+
+  private static long[] chunk(ChunkSieve sieve, long first, long last, long[] bases) {
+    ChunkSieve.Window window = sieve.newWindow();
+    window.sieve(first, last);
+    long[] result = new long[16];
+    int count = 0;
+    for(long n = Math.max(first, 3) | 1; n <= last; n += 2) {
+      if (window.isPrime(n) || !isStrongPseudoprime(n, bases))
+        continue;
+      if (count == result.length)
+        result = Arrays.copyOf(result, 2 * count);
+      result[count++] = n;
+    }
+    return Arrays.copyOf(result, count);
+  }
+
+  /**
+   * Odd n > 2 passes the strong test to every base.
+   */
+  static boolean isStrongPseudoprime(long n, long[] bases) {
+    int k = Long.numberOfTrailingZeros(n - 1);
+    long m = (n - 1) >>> k;
+    long nInv = MillerRabin64Montgomery.inverse(n);
+    long one = Long.remainderUnsigned(-n, n);
+    long r2 = MillerRabin64Montgomery.mulR(one, n);
+    for(long a : bases) {
+      long r = a % n;
+      // n | a: n is composite here, so not one of the prime factors of a.
+      if (r == 0 || !MillerRabin64Montgomery.tryWitness(r, m, n, k, nInv, one, r2))
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Smallest n in [lo, hi) for which witnesses fail, or -1 if they are valid in all of it.
+   * @throws IllegalArgumentException if the bases of the census are not all among witnesses
+   */
+  public long firstFailure(long[] witnesses) {
+    for(long b : bases)
+      if (Arrays.stream(witnesses).noneMatch(w -> w == b))
+        throw new IllegalArgumentException(String.format(
+          "Census to %s only covers witness sets containing its bases", Arrays.toString(bases)));
+    for(long n : pseudoprimes)
+      if (isStrongPseudoprime(n, witnesses))
+        return n;
+    return -1;
+  }
+
+  public int size() {
+    return pseudoprimes.length;
+  }
+
+  public long[] bases() {
+    return bases.clone();
+  }
+
+  public long[] pseudoprimes() {
+    return pseudoprimes.clone();
+  }
+
+  /**
+   * Header, then the gaps between consecutive entries (from lo) as unsigned LEB128.
+   */
+  public void write(Path file) throws IOException {
+    try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(lo);
+      out.writeLong(hi);
+      out.writeInt(bases.length);
+      for(long b : bases)
+        out.writeLong(b);
+      out.writeInt(pseudoprimes.length);
+      long prev = lo;
+      for(long n : pseudoprimes) {
+        long gap = n - prev;
+        while((gap & ~0x7FL) != 0) {
+          out.writeByte((int)(gap & 0x7F) | 0x80);
+          gap >>>= 7;
+        }
+        out.writeByte((int)gap);
+        prev = n;
+      }
+    }
+  }
+
+  /**
+   * The file starts like one written by write().
+   */
+  static boolean isCensusFile(Path file) throws IOException {
+    try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+      return Files.size(file) >= 8 && in.readInt() == MAGIC && in.readInt() == VERSION;
+    }
+  }
+
+  public static PseudoprimeCensus read(Path file) throws IOException {
+    try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION)
+        throw new IOException("Not a census file: " + file);
+      long lo = in.readLong();
+      long hi = in.readLong();
+      long[] bases = new long[in.readInt()];
+      for(int i = 0; i < bases.length; i++)
+        bases[i] = in.readLong();
+      long[] pseudoprimes = new long[in.readInt()];
+      long prev = lo;
+      for(int i = 0; i < pseudoprimes.length; i++) {
+        long gap = 0;
+        for(int shift = 0; ; shift += 7) {
+          int b = in.readUnsignedByte();
+          gap |= (long)(b & 0x7F) << shift;
+          if ((b & 0x80) == 0)
+            break;
+        }
+        prev += gap;
+        pseudoprimes[i] = prev;
+      }
+      return new PseudoprimeCensus(lo, hi, bases, pseudoprimes);
+    }
+  }
+
+  private static long[] parseBases(String s) {
+    return checkBases(Arrays.stream(s.split(",")).map(String::trim).mapToLong(Long::parseLong).toArray());
+  }
+
+  /**
+   * Bases below 2 would give a negative or trivial a mod n in the strong test.
+   */
+  private static long[] checkBases(long[] bases) {
+    for(long a : bases)
+      if (a < 2)
+        throw new IllegalArgumentException("Base below 2: " + a);
+    return bases;
+  }
+
+  private static long[] concat(long[][] parts) {
+    int total = 0;
+    for(long[] p : parts)
+      total += p.length;
+    long[] result = new long[total];
+    int pos = 0;
+    for(long[] p : parts) {
+      System.arraycopy(p, 0, result, pos, p.length);
+      pos += p.length;
+    }
+    return result;
+  }
+}
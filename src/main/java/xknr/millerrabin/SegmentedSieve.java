@@ -0,0 +1,300 @@
+package xknr.millerrabin;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Spliterator;
+import java.util.function.LongConsumer;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Primes in any window [lo, hi) of longs, sieved one cache sized segment at a time.
+ *
+ * Each segment is a bit vector of the odd numbers in it, crossed out by base
+ * primes up to sqrt(hi). Every spliterator keeps the position of each base prime
+ * from one segment to the next, so only the first segment divides.
+ * Memory is one segment and one int per base prime for each spliterator, plus the
+ * base primes, which are capped at BASE_LIMIT. Above BASE_LIMIT^2 the base primes no longer
+ * decide every survivor, and survivors are confirmed with Primality.isPrime.
+ *
+ * The spliterator splits on segment boundaries, so primesInRange(lo, hi).parallel()
+ * sieves different segments in different threads.
+ */
+public final class SegmentedSieve
+{
+  // 256 KB of bits per segment, the size of a typical L2 cache.
+  static final int SEGMENT_WORDS = 32768;
+  static final long SEGMENT_SPAN = 2L * 64 * SEGMENT_WORDS;
+
+  // Base primes are at most this, about 3.9M of them.
+  static final int BASE_LIMIT = 1 << 26;
+
+  private static int[] basePrimes = new int[0];
+  private static int basePrimesLimit = 0;
+
+  private SegmentedSieve() {
+  }
+
+  /**
+   * Primes p with lo <= p < hi, in increasing order.
+   * Lazy, memory stays bounded however wide the window is.
+   */
+  public static LongStream primesInRange(long lo, long hi) {
+    return StreamSupport.longStream(spliterator(lo, hi), false);
+  }
+
+  public static Spliterator.OfLong spliterator(long lo, long hi) {
+    lo = Math.max(lo, 0L);
+    hi = Math.max(hi, lo);
+    int limit = (int)Math.min(BASE_LIMIT, isqrt(hi - 1));
+    return new PrimeSpliterator(basePrimes(limit), limit, lo, hi);
+  }
+
+  /**
+   * Odd primes up to at least limit, shared by all streams.
+   * Callers only look at the primes up to their own limit.
+   */
+  static synchronized int[] basePrimes(int limit) {
+    if (limit > basePrimesLimit) {
+      basePrimes = simpleSieve(limit);
+      basePrimesLimit = limit;
+    }
+    return basePrimes;
+  }
+
+  /**
+   * Odd primes <= limit.
+   */
+  private static int[] simpleSieve(int limit) {
+    // bit i stands for 2i + 1
+    long[] composite = new long[(limit >>> 7) + 1];
+    int count = 0;
+    int[] primes = new int[Math.max(16, (int)(1.3 * limit / Math.log(Math.max(limit, 3))))];
+    for(long p = 3; p <= limit; p += 2) {
+      int i = (int)(p >>> 1);
+      if ((composite[i >>> 6] & (1L << i)) != 0)
+        continue;
+      if (count == primes.length)
+        primes = Arrays.copyOf(primes, count * 2);
+      primes[count++] = (int)p;
+      for(long q = p * p; q <= limit; q += 2 * p) {
+        int j = (int)(q >>> 1);
+        composite[j >>> 6] |= 1L << j;
+      }
+    }
+    return Arrays.copyOf(primes, count);
+  }
+
+  /**
+   * floor(sqrt(n)) for n >= 0.
+   */
+  static long isqrt(long n) {
+    if (n <= 0)
+      return 0;
+    long r = (long)Math.sqrt((double)n);
+    // Compared by division, (r + 1)^2 may not fit in a long.
+    while(r > n / r)
+      r--;
+    while(r + 1 <= n / (r + 1))
+      r++;
+    return r;
+  }
+
+  private static final class PrimeSpliterator implements Spliterator.OfLong
+  {
+    private final int[] base;
+    private final int baseLimit;
+    private final int baseCount;
+    private final long hi;
+
+    // Smallest number not yet looked at.
+    private long pos;
+
+    // The current segment starts at segLo (even), bit i of bits stands for segLo + 2i + 1.
+    private long[] bits;
+    private long segLo;
+    private long segEnd;
+    private int word;
+
+    // Bit index of the next multiple of base[j] in the next segment, for j < active.
+    private int[] next;
+    private int active;
+
+    PrimeSpliterator(int[] base, int baseLimit, long lo, long hi) {
+      this.base = base;
+      this.baseLimit = baseLimit;
+      int count = Arrays.binarySearch(base, baseLimit);
+      this.baseCount = count >= 0 ? count + 1 : -count - 1;
+      this.pos = lo;
+      this.hi = hi;
+    }
+
+    @Override
+    public boolean tryAdvance(LongConsumer action) {
+      if (pos <= 2 && hi > 2) {
+        pos = 3;
+        action.accept(2);
+        return true;
+      }
+      while(true) {
+        if (bits == null || word == SEGMENT_WORDS) {
+          if (pos >= hi)
+            return false;
+          sieveNext();
+        }
+        long w = bits[word];
+        if (w != 0) {
+          int b = Long.numberOfTrailingZeros(w);
+          bits[word] = w & (w - 1);
+          long n = segLo + 2L * (64L * word + b) + 1;
+          if (confirm(n)) {
+            action.accept(n);
+            return true;
+          }
+        } else {
+          word++;
+        }
+      }
+    }
+
+    @Override
+    public void forEachRemaining(LongConsumer action) {
+      if (pos <= 2 && hi > 2) {
+        pos = 3;
+        action.accept(2);
+      }
+      while(true) {
+        if (bits == null || word == SEGMENT_WORDS) {
+          if (pos >= hi)
+            return;
+          sieveNext();
+        }
+        for(; word < SEGMENT_WORDS; word++) {
+          long w = bits[word];
+          long first = segLo + 128L * word + 1;
+          while(w != 0) {
+            long n = first + 2L * Long.numberOfTrailingZeros(w);
+            w &= w - 1;
+            if (confirm(n))
+              action.accept(n);
+          }
+          bits[word] = 0;
+        }
+      }
+    }
+
+    /**
+     * Splits the part not yet sieved in two at a segment boundary, returns the lower half.
+     */
+    @Override
+    public Spliterator.OfLong trySplit() {
+      if (bits != null && word < SEGMENT_WORDS)
+        return null; // Finish the started segment first.
+      long segments = (hi - pos) / SEGMENT_SPAN;
+      if (segments < 2)
+        return null;
+      long mid = (pos & ~1L) + segments / 2 * SEGMENT_SPAN;
+      PrimeSpliterator prefix = new PrimeSpliterator(base, baseLimit, pos, mid);
+      pos = mid;
+      bits = null;
+      next = null;
+      return prefix;
+    }
+
+    /**
+     * About (hi - pos) / ln(hi), the prime number theorem.
+     */
+    @Override
+    public long estimateSize() {
+      long rest = hi - (bits == null ? pos : segLo);
+      return rest <= 0 ? 0 : (long)(rest / Math.log(Math.max(hi, 3)));
+    }
+
+    @Override
+    public int characteristics() {
+      return ORDERED | SORTED | DISTINCT | NONNULL | IMMUTABLE;
+    }
+
+    @Override
+    public Comparator<? super Long> getComparator() {
+      return null; // Natural order.
+    }
+
+    /**
+     * Survivors below (baseLimit + 1)^2 are prime, larger ones may not be.
+     */
+    private boolean confirm(long n) {
+      long b = baseLimit + 1L;
+      return n < b * b || Primality.isPrime(n);
+    }
+
+    /**
+     * Sieves [segLo, segEnd) starting at pos and moves pos past it.
+     */
+    private void sieveNext() {
+      if (bits == null)
+        bits = new long[SEGMENT_WORDS];
+      else
+        Arrays.fill(bits, 0L);
+
+      segLo = pos & ~1L;
+      segEnd = hi - segLo > SEGMENT_SPAN ? segLo + SEGMENT_SPAN : hi;
+      word = 0;
+
+      // Set the odd numbers in [pos, segEnd), and 1 is not a prime.
+      long first = Math.max(pos, 2) | 1;
+      int from = (int)((first - segLo) >>> 1);
+      int to = (int)((segEnd - segLo) >>> 1);
+      setRange(bits, from, to);
+
+      if (next == null) {
+        next = new int[baseCount];
+        active = 0;
+      }
+
+      // Primes whose square falls below segEnd start crossing out here.
+      for(; active < baseCount; active++) {
+        int p = base[active];
+        long pp = (long)p * p;
+        if (pp >= segEnd)
+          break;
+        // Offset of the first odd multiple of p in the segment, not below p^2.
+        long off;
+        if (pp >= segLo) {
+          off = pp - segLo;
+        } else {
+          long r = segLo % p;
+          off = r == 0 ? 0 : p - r;
+          if (((segLo + off) & 1) == 0)
+            off += p;
+        }
+        next[active] = (int)(off >>> 1);
+      }
+
+      for(int j = 0; j < active; j++) {
+        int p = base[j];
+        int i = next[j];
+        for(; i < to; i += p)
+          bits[i >>> 6] &= ~(1L << i);
+        // The next segment starts right after this one, to bits further.
+        next[j] = i - to;
+      }
+      pos = segEnd;
+    }
+
+    /**
+     * Sets bits [from, to) and clears the rest.
+     */
+    private static void setRange(long[] bits, int from, int to) {
+      for(int i = from; i < to; ) {
+        if ((i & 63) == 0 && i + 64 <= to) {
+          bits[i >>> 6] = -1L;
+          i += 64;
+        } else {
+          bits[i >>> 6] |= 1L << i;
+          i++;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,104 @@
+package xknr.millerrabin;
+
+/**
+ * Prefilter shared by the primitive engines, run before any witness.
+ *
+ * n < 2^16 is looked up in a bitmap of primes, which decides it.
+ * Larger n is reduced modulo 13# = 30030 and modulo products of the
+ * following primes up to 47. Each residue is looked up in a mask of
+ * residues coprime to its modulus, a miss means a factor <= 47.
+ */
+final class SmallPrimeFilter
+{
+  static final int PRIME = 1;
+  static final int COMPOSITE = 0;
+  static final int UNKNOWN = -1;
+
+  static final int BITMAP_LIMIT = 1 << 16;
+
+  // Largest prime whose multiples are decided.
+  static final int MAX_PRIME = 47;
+
+  // Moduli are constants so that n % M compiles to a multiplication.
+  private static final int M1 = 2 * 3 * 5 * 7 * 11 * 13; // 30030
+  private static final int M2 = 17 * 19 * 23;            // 7429
+  private static final int M3 = 29 * 31 * 37;            // 33263
+  private static final int M4 = 41 * 43 * 47;            // 82861
+
+  private static final long PRIMES[] = primeBitmap(BITMAP_LIMIT);
+
+  private static final long COPRIME1[] = coprimeMask(M1);
+  private static final long COPRIME2[] = coprimeMask(M2);
+  private static final long COPRIME3[] = coprimeMask(M3);
+  private static final long COPRIME4[] = coprimeMask(M4);
+
+  /**
+   * PRIME or COMPOSITE if decided, else UNKNOWN.
+   * UNKNOWN n is >= 2^16 and has no factor <= 47.
+   */
+  static int check(long n) {
+    if (n < BITMAP_LIMIT) {
+      if (n < 0)
+        return COMPOSITE;
+      return isSet(PRIMES, (int)n) ? PRIME : COMPOSITE;
+    }
+
+    if (!isSet(COPRIME1, (int)(n % M1))
+      || !isSet(COPRIME2, (int)(n % M2))
+      || !isSet(COPRIME3, (int)(n % M3))
+      || !isSet(COPRIME4, (int)(n % M4)))
+      return COMPOSITE;
+
+    return UNKNOWN;
+  }
+
+  static int check(int n) {
+    if (n < BITMAP_LIMIT) {
+      if (n < 0)
+        return COMPOSITE;
+      return isSet(PRIMES, n) ? PRIME : COMPOSITE;
+    }
+
+    if (!isSet(COPRIME1, n % M1)
+      || !isSet(COPRIME2, n % M2)
+      || !isSet(COPRIME3, n % M3)
+      || !isSet(COPRIME4, n % M4))
+      return COMPOSITE;
+
+    return UNKNOWN;
+  }
+
+  private static boolean isSet(long[] bits, int i) {
+    return (bits[i >>> 6] & (1L << i)) != 0;
+  }
+
+  private static long[] primeBitmap(int limit) {
+    long[] bits = new long[(limit + 63) >>> 6];
+    for(int i = 2; i < limit; i++)
+      bits[i >>> 6] |= 1L << i;
+
+    for(int p = 2; p * p < limit; p++)
+      if (isSet(bits, p))
+        for(int q = p * p; q < limit; q += p)
+          bits[q >>> 6] &= ~(1L << q);
+
+    return bits;
+  }
+
+  private static long[] coprimeMask(int m) {
+    long[] bits = new long[(m + 63) >>> 6];
+    for(int r = 0; r < m; r++)
+      if (gcd(r, m) == 1)
+        bits[r >>> 6] |= 1L << r;
+    return bits;
+  }
+
+  private static int gcd(int a, int b) {
+    while(b != 0) {
+      int t = a % b;
+      a = b;
+      b = t;
+    }
+    return a;
+  }
+}
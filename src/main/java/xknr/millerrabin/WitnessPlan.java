@@ -0,0 +1,215 @@
+package xknr.millerrabin;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static xknr.euler.util.BigInt.*;
+
+/**
+ * Witness sets by range: tier i covers n below bound(i) and above the bound of tier i - 1.
+ * Immutable, so one plan can be shared by engines and threads.
+ *
+ * The plan is not checked, a set has to be valid below its bound for the engine to be exact.
+ * A witness a with n | a proves nothing by the strong test, so the engines decide such n
+ * by the prime factors of a, found by Factorizer64 when the plan is built.
+ * PseudoprimeCensus.firstFailure finds the bound of a set below 2^63, censuses are on signed longs.
+ * For inputs in a narrow band, a plan with one short tier over the band costs less
+ * than the generic tiers, e.g. {31, 73} is valid below 9080191 and {2, 7, 61} below 4759123141.
+ *
+ * A tier is found by the bit length of n: index[b] is the first tier reaching numbers
+ * of b bits, usually the tier itself, at most a compare or two further.
+ */
+public final class WitnessPlan
+{
+  // Initialized before DEFAULT, which uses it.
+  private static final BigInteger TWO_64 = B(2).pow(64);
+
+  /**
+   * The tiers of MillerRabinBig, n < MillerRabinBig.LIMIT13.
+   */
+  public static final WitnessPlan DEFAULT = new Builder()
+    .tier(B(MillerRabin64.LIMIT1), EngineStats.Tier.FIRST_1, 2)
+    .tier(B(MillerRabin64.LIMIT2), EngineStats.Tier.FIRST_2, 2, 3)
+    .tier(B(MillerRabin64.LIMIT_SPECIAL1), EngineStats.Tier.SPECIAL1, 2, 7, 61)
+    .tier(B(MillerRabin64.LIMIT5), EngineStats.Tier.FIRST_5, 2, 3, 5, 7, 11)
+    .tier(B(MillerRabin64.LIMIT6), EngineStats.Tier.FIRST_6, 2, 3, 5, 7, 11, 13)
+    .tier(TWO_64, EngineStats.Tier.SPECIAL2, 2, 325, 9375, 28178, 450775, 9780504, 1795265022)
+    .tier(MillerRabinBig.LIMIT12, EngineStats.Tier.FIRST_12, 2, 3, 5, 7, 11, 13, 17, 19, 23, 29, 31, 37)
+    .tier(MillerRabinBig.LIMIT13, EngineStats.Tier.FIRST_13, 2, 3, 5, 7, 11, 13, 17, 19, 23, 29, 31, 37, 41)
+    .build();
+
+  private final BigInteger[] bounds;
+  // Bounds as unsigned longs, 2^64 - 1 for bounds above that, so that every long n is below it.
+  private final long[] longBounds;
+  private final long[][] witnesses;
+  private final BigInteger[][] bigWitnesses;
+  // Distinct prime factors of each witness, sorted.
+  private final long[][][] witnessFactors;
+  private final EngineStats.Tier[] statTiers;
+  private final int[] index;
+
+  private WitnessPlan(Builder b) {
+    int size = b.bounds.size();
+    bounds = b.bounds.toArray(new BigInteger[size]);
+    witnesses = b.witnesses.toArray(new long[size][]);
+    statTiers = b.statTiers.toArray(new EngineStats.Tier[size]);
+    longBounds = new long[size];
+    bigWitnesses = new BigInteger[size][];
+    witnessFactors = new long[size][][];
+    Factorizer64 factorizer = new Factorizer64();
+    long[] factors = new long[Factorizer64.MAX_FACTORS];
+    for(int t = 0; t < size; t++) {
+      longBounds[t] = bounds[t].compareTo(TWO_64) < 0 ? bounds[t].longValue() : -1L;
+      bigWitnesses[t] = Arrays.stream(witnesses[t]).mapToObj(BigInteger::valueOf).toArray(BigInteger[]::new);
+      witnessFactors[t] = new long[witnesses[t].length][];
+      for(int i = 0; i < witnesses[t].length; i++) {
+        int count = factorizer.factor(witnesses[t][i], factors);
+        witnessFactors[t][i] = Arrays.stream(factors, 0, count).distinct().toArray();
+      }
+    }
+
+    // index[b] for b = 0 .. bit length of the largest n in the plan.
+    index = new int[limit().subtract(B1).bitLength() + 1];
+    int t = 0;
+    for(int bits = 1; bits < index.length; bits++) {
+      BigInteger smallest = B1.shiftLeft(bits - 1);
+      while(bounds[t].compareTo(smallest) <= 0)
+        t++;
+      index[bits] = t;
+    }
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  public int size() {
+    return bounds.length;
+  }
+
+  /**
+   * Exclusive upper bound of tier t.
+   */
+  public BigInteger bound(int t) {
+    return bounds[t];
+  }
+
+  public long[] witnesses(int t) {
+    return witnesses[t].clone();
+  }
+
+  /**
+   * Every n below this has a tier.
+   */
+  public BigInteger limit() {
+    return bounds[bounds.length - 1];
+  }
+
+  /**
+   * Tier of 0 < n < limit().
+   * @throws IllegalArgumentException if n >= limit()
+   */
+  int tier(long n) {
+    int bits = 64 - Long.numberOfLeadingZeros(n);
+    if (bits >= index.length)
+      throw beyondLimit();
+    int t = index[bits];
+    while(t < longBounds.length && Long.compareUnsigned(n, longBounds[t]) >= 0)
+      t++;
+    if (t == longBounds.length)
+      throw beyondLimit();
+    return t;
+  }
+
+  int tier(BigInteger n) {
+    int bits = n.bitLength();
+    if (bits >= index.length)
+      throw beyondLimit();
+    int t = index[bits];
+    while(t < bounds.length && !less(n, bounds[t]))
+      t++;
+    if (t == bounds.length)
+      throw beyondLimit();
+    return t;
+  }
+
+  // Shared arrays for the engines, not to be modified.
+
+  long[] longWitnesses(int t) {
+    return witnesses[t];
+  }
+
+  BigInteger[] bigWitnesses(int t) {
+    return bigWitnesses[t];
+  }
+
+  /**
+   * For n dividing witness i of tier t: n is prime iff it is a prime factor of the witness.
+   */
+  boolean isWitnessFactor(int t, int i, long n) {
+    return Arrays.binarySearch(witnessFactors[t][i], n) >= 0;
+  }
+
+  EngineStats.Tier statTier(int t) {
+    return statTiers[t];
+  }
+
+  private IllegalArgumentException beyondLimit() {
+    return new IllegalArgumentException(String.format("No verified witness set for n >= %s", limit()));
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    for(int t = 0; t < bounds.length; t++)
+      sb.append(String.format("n < %s: %s%n", bounds[t], Arrays.toString(witnesses[t])));
+    return sb.toString();
+  }
+
+  /**
+   * Tiers are added in order of increasing bound.
+   */
+  public static final class Builder
+  {
+    private final List<BigInteger> bounds = new ArrayList<>();
+    private final List<long[]> witnesses = new ArrayList<>();
+    private final List<EngineStats.Tier> statTiers = new ArrayList<>();
+
+    private Builder() {
+    }
+
+    /**
+     * witnesses are used for n below bound, above the bound of the previous tier.
+     */
+    public Builder tier(long bound, long... witnesses) {
+      return tier(B(bound), witnesses);
+    }
+
+    public Builder tier(BigInteger bound, long... witnesses) {
+      return tier(bound, EngineStats.Tier.PLAN, witnesses);
+    }
+
+    Builder tier(BigInteger bound, EngineStats.Tier statTier, long... witnesses) {
+      BigInteger prev = bounds.isEmpty() ? B1 : bounds.get(bounds.size() - 1);
+      if (bound.compareTo(prev) <= 0)
+        throw new IllegalArgumentException(String.format("Bound %s not above %s", bound, prev));
+      if (witnesses.length == 0)
+        throw new IllegalArgumentException("No witnesses below " + bound);
+      for(long a : witnesses)
+        if (a < 2)
+          throw new IllegalArgumentException("Witness below 2: " + a);
+      bounds.add(bound);
+      this.witnesses.add(witnesses.clone());
+      statTiers.add(statTier);
+      return this;
+    }
+
+    public WitnessPlan build() {
+      if (bounds.isEmpty())
+        throw new IllegalStateException("No tiers");
+      return new WitnessPlan(this);
+    }
+  }
+}
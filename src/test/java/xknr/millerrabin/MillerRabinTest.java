@@ -1,9 +1,33 @@
 package xknr.millerrabin;
 
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
 import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.LongStream;
 import java.util.stream.Stream;
 
 import org.junit.jupiter.api.Test;
@@ -11,12 +35,15 @@ import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.MethodSource;
 
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 
 import xknr.millerrabin.MultiTestHelp.MethodProvider;
 
 import xknr.euler.primes.FirstPrimes;
+import xknr.euler.primes.SieveEratBitVector;
 
 public class MillerRabinTest
 {
@@ -248,6 +275,902 @@ public class MillerRabinTest
     assertTrue(b("4835703278458516698824713").isProbablePrime(50));
   }
 
+  @Test
+  public void testMillerRabinHashed() {
+    MillerRabinHashed mrhashed = new MillerRabinHashed();
+    // Low 32 bits are 7 and 2^31 - 1, a negative long must not be read as an int.
+    for(long n : new long[] {(-1L << 32) | 7, (-1L << 32) | Integer.MAX_VALUE, Long.MIN_VALUE + 7, -7}) {
+      assertEquals(false, mrhashed.isPrime(n), String.format("failed %d", n));
+      assertEquals(false, Primality.isPrime(n), String.format("Primality failed %d", n));
+    }
+    assertEquals(true, mrhashed.isPrime(7L));
+    assertEquals(true, mrhashed.isPrime((long)Integer.MAX_VALUE));
+
+    // Base-2 strong pseudoprimes above 2^32, which only the hashed base rejects. The first is 2^32 + 1.
+    MillerRabin64Montgomery mr64mont = new MillerRabin64Montgomery();
+    for(long n : new long[] {4_294_967_297L, 4_297_078_001L, 4_297_753_027L, 4_298_473_121L}) {
+      assertEquals(true, MillerRabin64Montgomery.tryWitness(2, n), String.format("not a pseudoprime %d", n));
+      assertEquals(false, mrhashed.isPrime(n), String.format("failed %d", n));
+    }
+
+    // Around 2^32, around HASHED_LIMIT, and at the top of the long range.
+    long[] starts = {
+      MillerRabinHashed.TABLE_LIMIT - 10_000,
+      Math.min(MillerRabinHashed.HASHED_LIMIT, Long.MAX_VALUE - 10_000) - 10_000,
+      Long.MAX_VALUE - 20_000
+    };
+    for(long beg : starts)
+      for(long n = beg; n < beg + 20_000; n++)
+        assertEquals(mr64mont.isPrime(n), mrhashed.isPrime(n), String.format("failed %d", n));
+  }
+
+  @Test
+  public void testMillerRabin128() {
+    MillerRabin128 m128 = new MillerRabin128();
+    MillerRabinBig mb = new MillerRabinBig();
+    for(BigInteger n : nums8) {
+      assertEquals(true, m128.isPrime(n), String.format("failed %d", n));
+      assertEquals(true, Primality.isPrime(n.shiftRight(64).longValue(), n.longValue()), 
+        String.format("Primality failed %d", n));
+    }
+    
+    // Strong pseudoprime to the first 12 primes, and the largest accepted n.
+    assertEquals(false, m128.isPrime(b("318665857834031151167461")));
+    assertEquals(mb.isPrime(MillerRabinBig.ARG_LIMIT), m128.isPrime(MillerRabinBig.ARG_LIMIT));
+    assertThrows(IllegalArgumentException.class, () -> m128.isPrime(MillerRabinBig.LIMIT13));
+    
+    // Around 2^63, 2^64 and LIMIT13.
+    BigInteger[] starts = {
+      MillerRabinBig.LONG_MAX.subtract(b("1000")), b("18446744073709551616").subtract(b("1000")), 
+      MillerRabinBig.LIMIT13.subtract(b("2000"))
+    };
+    for(BigInteger beg : starts) {
+      for(BigInteger n = beg; n.compareTo(beg.add(b("2000"))) < 0; n = n.add(BigInteger.ONE)) {
+        boolean expected = mb.isPrime(n);
+        assertEquals(expected, m128.isPrime(n), String.format("failed %d", n));
+      }
+    }
+    
+    Random rnd = new Random(5);
+    for(int i = 0; i < 20_000; i++) {
+      BigInteger n = new BigInteger(81, rnd);
+      if (i % 4 == 0)
+        n = n.nextProbablePrime();
+      assertEquals(mb.isPrime(n), m128.isPrime(n), String.format("failed %d", n));
+    }
+
+    // The two limb version allocates nothing, not even before the JIT removes allocations.
+    if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean mx) {
+      BigInteger p = b("1208925819614629174706189");
+      long high = p.shiftRight(64).longValue(), low = p.longValue();
+      m128.isPrime(high, low);
+      long before = mx.getCurrentThreadAllocatedBytes();
+      for(int i = 0; i < 100; i++)
+        m128.isPrime(high, low + 2 * i);
+      assertEquals(before, mx.getCurrentThreadAllocatedBytes());
+    }
+  }
+
+  @Test
+  public void testPrimesInRange() {
+    final int limit = 2_000_000;
+    SieveEratBitVector sieve = new SieveEratBitVector(limit);
+    long[] expected = LongStream.range(0, limit).filter(sieve::isPrime).toArray();
+    assertArrayEquals(expected, Primality.primesInRange(-5, limit).toArray());
+    assertArrayEquals(expected, Primality.primesInRange(0, limit).parallel().toArray());
+    assertEquals(0, Primality.primesInRange(100, 100).count());
+    assertEquals(1, Primality.primesInRange(2, 3).count());
+    
+    // Windows above the sieve, and above BASE_LIMIT^2 where survivors get a strong test.
+    long[] starts = {1_000_000_000_000_000L - 12345, Long.MAX_VALUE - 1_500_000};
+    for(long beg : starts) {
+      long end = beg + 1_500_000;
+      long[] exp = LongStream.range(beg, end).filter(Primality::isPrime).toArray();
+      assertArrayEquals(exp, Primality.primesInRange(beg, end).toArray(), String.format("failed at %d", beg));
+      assertArrayEquals(exp, Primality.primesInRange(beg, end).parallel().toArray(), String.format("parallel failed at %d", beg));
+    }
+  }
+
+  @Test
+  public void testNextPrime() {
+    long[] primes = Primality.primesInRange(0, 1_000_000).toArray();
+    for(int i = 0; i + 1 < primes.length; i++) {
+      for(long n = primes[i]; n < primes[i + 1]; n++) {
+        assertEquals(primes[i + 1], Primality.nextPrime(n), String.format("next failed %d", n));
+        assertEquals(primes[i], Primality.prevPrime(n + 1), String.format("prev failed %d", n + 1));
+      }
+    }
+    assertEquals(2, Primality.nextPrime(-100));
+    assertEquals(2, Primality.nextPrime(1));
+    assertEquals(2, Primality.prevPrime(3));
+    assertThrows(IllegalArgumentException.class, () -> Primality.prevPrime(2));
+    assertThrows(IllegalArgumentException.class, () -> Primality.prevPrime(BigInteger.TWO));
+    // Below Long.MIN_VALUE, the low bits alone would be 5.
+    assertThrows(IllegalArgumentException.class,
+      () -> Primality.prevPrime(BigInteger.ONE.shiftLeft(64).negate().add(BigInteger.valueOf(5))));
+    assertEquals(BigInteger.valueOf(2), Primality.nextPrime(BigInteger.ONE.shiftLeft(64).negate()));
+    
+    // The ends of the long range.
+    long largest = NextPrime.LARGEST_LONG_PRIME;
+    assertEquals(largest, Primality.prevPrime(Long.MAX_VALUE));
+    assertEquals(largest, Primality.nextPrime(Primality.prevPrime(largest)));
+    assertThrows(ArithmeticException.class, () -> Primality.nextPrime(largest));
+    assertEquals(b("9223372036854775837"), Primality.nextPrime(BigInteger.valueOf(largest)));
+    assertEquals(BigInteger.valueOf(largest), Primality.prevPrime(b("9223372036854775837")));
+    
+    // Random starts, against a scan with isPrime.
+    Random rnd = new Random(11);
+    for(int i = 0; i < 2000; i++) {
+      long n = rnd.nextLong() >>> (1 + rnd.nextInt(60));
+      if (n < 3)
+        continue;
+      long next = n + 1, prev = n - 1;
+      while(!Primality.isPrime(next))
+        next++;
+      while(!Primality.isPrime(prev))
+        prev--;
+      assertEquals(next, Primality.nextPrime(n), String.format("next failed %d", n));
+      assertEquals(prev, Primality.prevPrime(n), String.format("prev failed %d", n));
+    }
+    for(int bits : new int[] {64, 82, 128, 256}) {
+      for(int i = 0; i < 20; i++) {
+        BigInteger n = new BigInteger(bits, rnd).setBit(bits - 1);
+        BigInteger next = n.add(BigInteger.ONE), prev = n.subtract(BigInteger.ONE);
+        while(!Primality.isPrime(next))
+          next = next.add(BigInteger.ONE);
+        while(!Primality.isPrime(prev))
+          prev = prev.subtract(BigInteger.ONE);
+        assertEquals(next, Primality.nextPrime(n), String.format("next failed %d", n));
+        assertEquals(prev, Primality.prevPrime(n), String.format("prev failed %d", n));
+      }
+    }
+  }
+
+  @Test
+  public void testSmallPrimeFilter() {
+    final int limit = 1_000_000;
+    SieveEratBitVector sieve = new SieveEratBitVector(limit);
+    for(int n = -10; n < limit; n++) {
+      int small = SmallPrimeFilter.check(n);
+      boolean prime = n >= 0 && sieve.isPrime(n);
+      if (small == SmallPrimeFilter.UNKNOWN) {
+        assertTrue(n >= SmallPrimeFilter.BITMAP_LIMIT, String.format("undecided %d", n));
+      } else {
+        assertEquals(prime, small == SmallPrimeFilter.PRIME, String.format("failed %d", n));
+      }
+      assertEquals(small, SmallPrimeFilter.check((long)n), String.format("long failed %d", n));
+    }
+  }
+
+  @Test
+  public void testBatch() {
+    List<Long> li = new ArrayList<Long>();
+    for(long n = -10; n < 10_000; n++)
+      li.add(n);
+    for(long n : nums) {
+      li.add(n);
+      li.add(n + 2);
+    }
+    li.addAll(nums2);
+    li.addAll(nums3);
+    li.addAll(nums4);
+    li.add(3215031751L);
+    li.add(2152302898747L);
+    li.add(3474749660383L);
+    li.add(341550071728321L);
+    li.add(3825123056546413051L);
+    li.add(Long.MAX_VALUE);
+    li.add(Long.MIN_VALUE);
+
+    // Offset 1 so that the first input is skipped.
+    long[] in = new long[li.size() + 1];
+    for(int i = 0; i < li.size(); i++)
+      in[i + 1] = li.get(i);
+    long[] out = new long[(li.size() + 63) / 64];
+    Primality.isPrime(in, 1, li.size(), out);
+    
+    for(int i = 0; i < li.size(); i++) {
+      long n = li.get(i);
+      boolean result = (out[i >>> 6] & (1L << i)) != 0;
+      assertEquals(Primality.isPrime(n), result, String.format("failed %d", n));
+    }
+  }
+
+  @Test
+  public void testBatchVector() {
+    MillerRabin32 mr32 = new MillerRabin32();
+    int len = 100_000;
+    int[] in = new int[len];
+    for(int i = 0; i < len; i++)
+      in[i] = i < len / 2 ? i - 10 : Integer.MAX_VALUE - i;
+
+    long[] out = new long[(len + 63) / 64];
+    Primality.isPrime(in, 0, len, out);
+    
+    for(int i = 0; i < len; i++) {
+      boolean result = (out[i >>> 6] & (1L << i)) != 0;
+      assertEquals(mr32.isPrime(in[i]), result, String.format("failed %d", in[i]));
+    }
+  }
+
+  @Test
+  public void testBailliePSW() {
+    BailliePSW bpsw = new BailliePSW();
+    
+    // Mersenne primes and composites.
+    for(int e : new int[] {61, 89, 107, 127, 521, 607, 1279}) {
+      BigInteger m = BigInteger.ONE.shiftLeft(e).subtract(BigInteger.ONE);
+      assertTrue(bpsw.isPrime(m), String.format("failed 2^%d-1", e));
+      assertTrue(Primality.isPrime(m), String.format("Primality failed 2^%d-1", e));
+    }
+    for(int e : new int[] {67, 101, 128, 512, 1277})
+      assertEquals(false, bpsw.isPrime(BigInteger.ONE.shiftLeft(e).subtract(BigInteger.ONE)), String.format("failed 2^%d-1", e));
+
+    // Zero and negative n, also of 63 bits and more, which skip the long engine.
+    for(int e : new int[] {1, 2, 62, 63, 64, 89, 127, 521}) {
+      BigInteger m = BigInteger.ONE.shiftLeft(e).subtract(BigInteger.ONE).negate();
+      assertEquals(false, bpsw.isPrime(m), String.format("failed -(2^%d-1)", e));
+      assertEquals(false, bpsw.isPrime(m.subtract(BigInteger.ONE)), String.format("failed -2^%d", e));
+    }
+    assertEquals(false, bpsw.isPrime(BigInteger.ZERO));
+    
+    // At and above LIMIT13 Primality no longer throws.
+    assertEquals(false, Primality.isPrime(MillerRabinBig.LIMIT13));
+    assertEquals(true, Primality.isPrime(MillerRabinBig.LIMIT13.nextProbablePrime()));
+
+    Random rnd = new Random(7);
+    for(int bits : new int[] {63, 64, 65, 82, 128, 256, 512}) {
+      for(int i = 0; i < 1000; i++) {
+        BigInteger n = new BigInteger(bits, rnd).setBit(bits - 1);
+        if (i % 4 == 0)
+          n = n.nextProbablePrime();
+        assertEquals(n.isProbablePrime(50), bpsw.isPrime(n), String.format("failed %d", n));
+      }
+      // Products of two primes and squares of primes.
+      for(int i = 0; i < 50; i++) {
+        BigInteger p = BigInteger.probablePrime(bits / 2 + 1, rnd);
+        BigInteger q = BigInteger.probablePrime(bits / 2 + 1, rnd);
+        assertEquals(false, bpsw.isPrime(p.multiply(q)), String.format("failed %d * %d", p, q));
+        assertEquals(false, bpsw.isPrime(p.multiply(p)), String.format("failed %d^2", p));
+      }
+    }
+  }
+
+  /**
+   * Many threads share Primality and one MillerRabin64 instance, 
+   * results are compared against a sieve.
+   */
+  @Test
+  public void testConcurrent() throws InterruptedException, ExecutionException {
+    final int limit = 2_000_000;
+    final int threadCount = 8;
+    SieveEratBitVector sieve = new SieveEratBitVector(limit);
+    MillerRabin64 shared = new MillerRabin64();
+    
+    ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+    List<Future<?>> futures = new ArrayList<Future<?>>();
+    for(int t = 0; t < threadCount; t++) {
+      final int tid = t;
+      futures.add(executor.submit(() -> {
+        for(long n = tid; n < limit; n += threadCount) {
+          boolean expected = sieve.isPrime(n);
+          assertEquals(expected, Primality.isPrime(n), String.format("Primality failed %d", n));
+          assertEquals(expected, shared.isPrime(n), String.format("MillerRabin64 failed %d", n));
+        }
+        // Large n, where every multiplication goes through 128 bits.
+        for(long n = nums4.get(0) + tid; n <= nums4.get(nums4.size() - 1); n += threadCount) {
+          boolean expected = nums4.contains(n);
+          assertEquals(expected, Primality.isPrime(n), String.format("Primality failed %d", n));
+          assertEquals(expected, shared.isPrime(n), String.format("MillerRabin64 failed %d", n));
+        }
+      }));
+    }
+    executor.shutdown();
+    
+    // Rethrows assertion failures of the workers.
+    for(Future<?> f : futures)
+      f.get();
+  }
+
+  /**
+   * Counters add up to the calls made with -Dxknr.millerrabin.stats=true, and stay 0 without it.
+   */
+  @Test
+  public void testEngineStats() {
+    MillerRabin64 mr64 = new MillerRabin64();
+    EngineStats stats = MillerRabin64.stats;
+    stats.reset();
+
+    final long beg = 4_000_000_000L, end = beg + 200_000;
+    long primes = 0;
+    for(long n = beg; n < end; n++)
+      if (mr64.isPrime(n))
+        primes++;
+
+    long tierPrimes = 0, tierCalls = 0, rejections = 0;
+    for(EngineStats.Tier tier : EngineStats.Tier.values()) {
+      tierPrimes += stats.primes(tier);
+      tierCalls += stats.calls(tier);
+      for(int k = 0; k < EngineStats.MAX_WITNESSES; k++)
+        rejections += stats.rejections(tier, k);
+    }
+
+    if (EngineStats.ENABLED) {
+      assertEquals(primes, tierPrimes + stats.smallPrimes());
+      assertEquals(end - beg, stats.smallFactors() + stats.smallPrimes() + tierPrimes + rejections);
+      // Every n here is in [LIMIT2, LIMIT_SPECIAL1), one tier.
+      assertEquals(tierCalls, stats.calls(EngineStats.Tier.SPECIAL1));
+    } else {
+      assertEquals(0, tierPrimes + tierCalls + rejections + stats.smallFactors() + stats.smallPrimes());
+    }
+
+    // Calls to Primality.isPrime(long) end up in the tiers of the engines it routes to.
+    long[][] ranges = {
+      {3_000_000_000L, 3_000_050_000L},                 // hashed witness
+      {4_300_000_000L, 4_300_050_000L},                 // {2, 7, 61}, or 2 and a hashed witness
+      {1_000_000_000_000L, 1_000_000_050_000L},         // first 5 primes
+      {3_000_000_000_000L, 3_000_000_050_000L},         // first 6 primes
+      {1_000_000_000_000_000L, 1_000_000_000_050_000L}, // special set 2
+    };
+    EngineStats.Tier[] tiers = {
+      EngineStats.Tier.HASHED, EngineStats.Tier.SPECIAL1, EngineStats.Tier.FIRST_5,
+      EngineStats.Tier.FIRST_6, EngineStats.Tier.SPECIAL2
+    };
+    for(int r = 0; r < ranges.length; r++) {
+      // Answered by the table instead.
+      if (r == 0 && System.getProperty(MappedPrimeTable.PROPERTY) != null)
+        continue;
+      // Below HASHED_LIMIT Primality goes to MillerRabinHashed.
+      boolean hashed = ranges[r][1] <= MillerRabinHashed.HASHED_LIMIT;
+      if (hashed)
+        tiers[r] = EngineStats.Tier.HASHED;
+      EngineStats s = hashed ? MillerRabinHashed.stats : MillerRabin64Montgomery.stats;
+      s.reset();
+      primes = 0;
+      for(long n = ranges[r][0]; n < ranges[r][1]; n++)
+        if (Primality.isPrime(n))
+          primes++;
+
+      String tier = tiers[r].label;
+      long rejected = 0, calls = 0;
+      for(int k = 0; k < EngineStats.MAX_WITNESSES; k++)
+        rejected += s.rejections(tiers[r], k);
+      for(EngineStats.Tier t : EngineStats.Tier.values())
+        calls += s.calls(t);
+      if (EngineStats.ENABLED) {
+        assertEquals(calls, s.calls(tiers[r]), tier);
+        assertEquals(primes, s.primes(tiers[r]), tier);
+        assertEquals(0, s.smallPrimes(), tier);
+        assertEquals(ranges[r][1] - ranges[r][0], s.smallFactors() + s.primes(tiers[r]) + rejected, tier);
+        // The first witness rejects nearly all composites.
+        assertTrue(s.rejections(tiers[r], 0) > rejected / 2, tier);
+      } else {
+        assertEquals(0, calls + rejected + s.smallFactors() + s.smallPrimes(), tier);
+      }
+    }
+
+    // And above 2^64, through MillerRabin128.
+    EngineStats s128 = MillerRabin128.stats;
+    s128.reset();
+    primes = 0;
+    BigInteger beg128 = BigInteger.ONE.shiftLeft(70);
+    for(BigInteger n = beg128; n.compareTo(beg128.add(b("5000"))) < 0; n = n.add(BigInteger.ONE))
+      if (Primality.isPrime(n))
+        primes++;
+    if (EngineStats.ENABLED) {
+      assertEquals(primes, s128.primes(EngineStats.Tier.FIRST_12));
+      assertEquals(s128.calls(EngineStats.Tier.FIRST_12), s128.primes(EngineStats.Tier.FIRST_12)
+        + s128.rejections(EngineStats.Tier.FIRST_12, 0) + s128.rejections(EngineStats.Tier.FIRST_12, 1));
+      assertTrue(s128.smallFactors() > 0);
+    } else {
+      assertEquals(0, s128.calls(EngineStats.Tier.FIRST_12) + s128.smallFactors());
+    }
+  }
+
+  @Test
+  public void testPseudoprimeCensus() throws IOException {
+    // Strong pseudoprimes to base 2 below 10^4 are 2047, 3277, 4033, 4681, 8321.
+    assertArrayEquals(new long[] {2047, 3277, 4033, 4681, 8321},
+      PseudoprimeCensus.census(0, 10_000, new long[] {2}).pseudoprimes());
+    assertArrayEquals(new long[] {3277, 4033},
+      PseudoprimeCensus.census(2048, 4034, new long[] {2}).pseudoprimes());
+
+    PseudoprimeCensus census = PseudoprimeCensus.census(0, 26_000_000, new long[] {2});
+    long prev = 0;
+    for(long n : census.pseudoprimes()) {
+      assertTrue(n > prev && !BigInteger.valueOf(n).isProbablePrime(50), String.format("failed %d", n));
+      assertTrue(MillerRabin64Montgomery.tryWitness(2, n), String.format("failed %d", n));
+      prev = n;
+    }
+
+    Path file = Files.createTempFile("spsp", ".bin");
+    try {
+      census.write(file);
+      PseudoprimeCensus read = PseudoprimeCensus.read(file);
+      assertEquals(census.lo, read.lo);
+      assertEquals(census.hi, read.hi);
+      assertArrayEquals(census.bases(), read.bases());
+      assertArrayEquals(census.pseudoprimes(), read.pseudoprimes());
+    } finally {
+      Files.delete(file);
+    }
+
+    // First failures of the first primes, OEIS A014233.
+    assertEquals(2047, census.firstFailure(new long[] {2}));
+    assertEquals(1373653, census.firstFailure(new long[] {2, 3}));
+    assertEquals(25326001, census.firstFailure(new long[] {2, 3, 5}));
+    assertEquals(-1, census.firstFailure(new long[] {2, 3, 5, 7}));
+    assertEquals(-1, census.firstFailure(new long[] {2, 7, 61}));
+    assertThrows(IllegalArgumentException.class, () -> census.firstFailure(new long[] {3, 5}));
+    assertThrows(IllegalArgumentException.class, () -> PseudoprimeCensus.census(0, 10_000, new long[] {2, -3}));
+
+    // The census and the engines agree on n dividing a base, 67591 = 257 * 263.
+    final long[] dividing = {67591};
+    PseudoprimeCensus small = PseudoprimeCensus.census(0, 100_000, dividing);
+    assertTrue(Arrays.stream(small.pseudoprimes()).noneMatch(n -> n == 67591));
+    MillerRabin64 planned = new MillerRabin64(WitnessPlan.builder().tier(100_000, dividing).build());
+    long firstWrong = -1;
+    for(int n = 0; n < 100_000 && firstWrong < 0; n++)
+      if (planned.isPrime(n) != BigInteger.valueOf(n).isProbablePrime(50))
+        firstWrong = n;
+    assertTrue(firstWrong > 0 && small.firstFailure(dividing) <= firstWrong, String.format("failed %d", firstWrong));
+    assertThrows(IllegalArgumentException.class, () -> PseudoprimeCensus.census(0, 10_000, new long[] {1}));
+
+    // Chunk ends near Long.MAX_VALUE must not overflow.
+    final long chunk = PseudoprimeCensus.CHUNK;
+    assertEquals(Long.MAX_VALUE - 1, PseudoprimeCensus.chunkLast(Long.MAX_VALUE - 10, Long.MAX_VALUE));
+    assertEquals(Long.MAX_VALUE - 1, PseudoprimeCensus.chunkLast(Long.MAX_VALUE - chunk, Long.MAX_VALUE));
+    assertEquals(Long.MAX_VALUE - 2, PseudoprimeCensus.chunkLast(Long.MAX_VALUE - chunk - 1, Long.MAX_VALUE));
+    assertEquals(chunk - 1, PseudoprimeCensus.chunkLast(0, Long.MAX_VALUE));
+    assertEquals(99, PseudoprimeCensus.chunkLast(0, 100));
+  }
+
+  @Test
+  public void testWitnessPlan() {
+    // {31, 73} is valid below 9080191, {2, 7, 61} below 4759123141.
+    WitnessPlan plan = WitnessPlan.builder()
+      .tier(9080191, 31, 73)
+      .tier(4759123141L, 2, 7, 61)
+      .build();
+    MillerRabin64 mr64 = new MillerRabin64(plan);
+    MillerRabinBig mrBig = new MillerRabinBig(plan);
+
+    final int limit = 9_200_000;
+    SieveEratBitVector sieve = new SieveEratBitVector(limit);
+    for(int n = 0; n < limit; n++)
+      assertEquals(sieve.isPrime(n), mr64.isPrime(n), String.format("failed %d", n));
+    for(int n = 0; n < 100_000; n++)
+      assertEquals(sieve.isPrime(n), mrBig.isPrime(BigInteger.valueOf(n)), String.format("failed %d", n));
+    for(long n = 4759123141L - 20_000; n < 4759123141L; n++) {
+      boolean expected = BigInteger.valueOf(n).isProbablePrime(50);
+      assertEquals(expected, mr64.isPrime(n), String.format("failed %d", n));
+      assertEquals(expected, mrBig.isPrime(BigInteger.valueOf(n)), String.format("failed %d", n));
+    }
+    assertThrows(IllegalArgumentException.class, () -> mr64.isPrime(4759123141L));
+    assertThrows(IllegalArgumentException.class, () -> mrBig.isPrime(BigInteger.valueOf(4759123141L)));
+
+    // n dividing a witness, above 2^16 and without factors <= 47: 67591 = 257 * 263 and 99991 prime.
+    WitnessPlan dividing = WitnessPlan.builder().tier(100000, 67591, 3 * 99991L).build();
+    for(long n : new long[] {67591, 99991}) {
+      boolean expected = BigInteger.valueOf(n).isProbablePrime(50);
+      assertEquals(expected, new MillerRabin64(dividing).isPrime(n), String.format("failed %d", n));
+      assertEquals(expected, new MillerRabinBig(dividing).isPrime(BigInteger.valueOf(n)), String.format("failed %d", n));
+    }
+
+    // {2, 3} alone is not enough at the first bound of {2, 3, 5}.
+    MillerRabin64 weak = new MillerRabin64(WitnessPlan.builder().tier(25326002, 2, 3).build());
+    assertEquals(true, weak.isPrime(25326001));
+
+    assertThrows(IllegalArgumentException.class, () -> WitnessPlan.builder().tier(100, 2).tier(100, 3));
+    assertThrows(IllegalArgumentException.class, () -> WitnessPlan.builder().tier(100));
+    assertThrows(IllegalArgumentException.class, () -> WitnessPlan.builder().tier(100, 1));
+    assertThrows(IllegalStateException.class, () -> WitnessPlan.builder().build());
+    assertEquals(MillerRabinBig.LIMIT13, WitnessPlan.DEFAULT.limit());
+  }
+
+  @Test
+  public void testPrimalityCache() throws InterruptedException, ExecutionException {
+    // 8 buckets, 64 entries.
+    PrimalityCache cache = new PrimalityCache(1000);
+    assertEquals(64, cache.capacity());
+    assertThrows(IllegalArgumentException.class, () -> new PrimalityCache(10));
+
+    final long beg = 1_000_000_007L;
+    for(int round = 0; round < 3; round++)
+      for(long n = beg; n < beg + 48; n++)
+        assertEquals(Primality.isPrime(n), cache.isPrime(n), String.format("failed %d", n));
+    assertEquals(3 * 48, cache.hits() + cache.misses());
+    // Some buckets overflow, the rest hits from the second round on.
+    assertTrue(cache.hits() >= 48);
+    assertEquals(false, cache.isPrime(0));
+    assertEquals(false, cache.isPrime(-7));
+
+    cache.clear();
+    cache.resetStats();
+    for(long n = beg; n < beg + 10_000; n++)
+      assertEquals(Primality.isPrime(n), cache.isPrime(n), String.format("failed %d", n));
+    assertEquals(10_000, cache.misses());
+    assertEquals(10_000 - 64, cache.evictions());
+
+    // Skewed stream from several threads, against the uncached result.
+    PrimalityCache shared = new PrimalityCache(1 << 16);
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<Integer>> failures = new ArrayList<>();
+      for(int t = 0; t < 4; t++) {
+        final long seed = t;
+        failures.add(pool.submit(() -> {
+          Random rnd = new Random(seed);
+          int failed = 0;
+          for(int i = 0; i < 200_000; i++) {
+            long n = (1L << 40) + (long)Math.pow(rnd.nextDouble(), 4) * 100_000;
+            if (shared.isPrime(n) != Primality.isPrime(n))
+              failed++;
+          }
+          return failed;
+        }));
+      }
+      for(Future<Integer> f : failures)
+        assertEquals(0, (int)f.get());
+    } finally {
+      pool.shutdown();
+    }
+    assertEquals(800_000, shared.hits() + shared.misses());
+    assertTrue(shared.hitRate() > 0.5, shared.toString());
+  }
+
+  @Test
+  public void testMappedPrimeTable() throws IOException {
+    // Not a multiple of 30, the last byte is partly past the limit.
+    final int limit = 10_000_013;
+    // Mapped files cannot be deleted on some systems while the map is live.
+    Path file = Files.createTempFile("primes", ".bin");
+    file.toFile().deleteOnExit();
+    MappedPrimeTable.generate(file, limit);
+    assertEquals(16 + (limit + 29) / 30, Files.size(file));
+    MappedPrimeTable table = MappedPrimeTable.open(file);
+    assertEquals(limit, table.limit());
+    SieveEratBitVector sieve = new SieveEratBitVector(limit);
+    for(int n = 0; n < limit; n++) {
+      assertEquals(sieve.isPrime(n), table.isPrime(n), String.format("failed %d", n));
+      assertEquals(sieve.isPrime(n), table.isPrime((long)n), String.format("failed %d", n));
+    }
+
+    // Regenerating replaces the file, a live map of the old one still reads to its end.
+    MappedPrimeTable.generate(file, 1000);
+    assertEquals(1000, MappedPrimeTable.open(file).limit());
+    for(int n = limit - 1000; n < limit; n++)
+      assertEquals(sieve.isPrime(n), table.isPrime(n), String.format("failed %d", n));
+    try(Stream<Path> siblings = Files.list(file.toAbsolutePath().getParent())) {
+      String prefix = file.getFileName() + ".";
+      assertTrue(siblings.noneMatch(p -> p.getFileName().toString().startsWith(prefix)));
+    }
+
+    Path truncated = Files.createTempFile("primes", ".bin");
+    truncated.toFile().deleteOnExit();
+    byte[] bytes = Files.readAllBytes(file);
+    Files.write(truncated, Arrays.copyOf(bytes, bytes.length - 1));
+    assertThrows(IOException.class, () -> MappedPrimeTable.open(truncated));
+    assertThrows(IllegalArgumentException.class, () -> MappedPrimeTable.generate(truncated, (1L << 32) + 1));
+  }
+
+  @Test
+  public void testPrimeFilter() throws IOException {
+    Random rnd = new Random(7);
+    long[] values = new long[5000];
+    for(int i = 0; i < values.length; i++)
+      values[i] = i < 1000 ? i : rnd.nextLong() >>> rnd.nextInt(64);
+    // Unsigned, the largest prime below 2^64 and a composite.
+    values[10] = -59;
+    values[11] = -1;
+    BigInteger wide = BigInteger.TWO.pow(89).subtract(BigInteger.ONE);
+
+    StringBuilder text = new StringBuilder();
+    List<String> expected = new ArrayList<>();
+    BitSet expectedBits = new BitSet();
+    int count = 0;
+    for(long v : values) {
+      if (v < 0)
+        continue;
+      text.append(count % 3 == 0 ? "000" : "").append(v).append(count % 2 == 0 ? "\n" : ", ");
+      if (Primality.isPrime(v)) {
+        expected.add((count % 3 == 0 ? "000" : "") + v);
+        expectedBits.set(count);
+      }
+      count++;
+    }
+    // Signs, a prime above 2^63 and a wide composite, then no separator at the end.
+    text.append("-7 ").append(wide).append(' ').append(wide.add(BigInteger.TWO)).append(" 13");
+    expected.add(wide.toString());
+    expected.add("13");
+    expectedBits.set(count + 1);
+    expectedBits.set(count + 3);
+    count += 4;
+
+    Path in = Files.createTempFile("numbers", ".txt");
+    Path out = Files.createTempFile("primes", ".txt");
+    in.toFile().deleteOnExit();
+    out.toFile().deleteOnExit();
+    Files.writeString(in, text);
+    // Small regions and blocks to cut numbers everywhere.
+    for(int region : new int[] {100, 1 << 12, 1 << 20}) {
+      PrimeFilter filter = new PrimeFilter(PrimeFilter.Format.DECIMAL, PrimeFilter.Output.PRIMES, 3, region, 37);
+      filter.run(in, out);
+      assertEquals(count, filter.numbers());
+      assertEquals(expected, Files.readAllLines(out));
+      new PrimeFilter(PrimeFilter.Format.DECIMAL, PrimeFilter.Output.BITS, 2, region, 37).run(in, out);
+      assertEquals(expectedBits, BitSet.valueOf(Files.readAllBytes(out)));
+    }
+    assertEquals((count + 7) / 8, Files.size(out));
+
+    ByteBuffer bytes = ByteBuffer.allocate(8 * values.length).order(ByteOrder.LITTLE_ENDIAN);
+    ByteBuffer primes = ByteBuffer.allocate(8 * values.length).order(ByteOrder.LITTLE_ENDIAN);
+    expectedBits.clear();
+    for(int i = 0; i < values.length; i++) {
+      bytes.putLong(values[i]);
+      if (Primality.isPrime(0, values[i])) {
+        primes.putLong(values[i]);
+        expectedBits.set(i);
+      }
+    }
+    assertTrue(expectedBits.get(10) && !expectedBits.get(11));
+    Files.write(in, bytes.array());
+    PrimeFilter filter = new PrimeFilter(PrimeFilter.Format.BINARY, PrimeFilter.Output.PRIMES, 2, 1 << 12, 100);
+    filter.run(in, out);
+    assertEquals(values.length, filter.numbers());
+    assertArrayEquals(Arrays.copyOf(primes.array(), primes.position()), Files.readAllBytes(out));
+    new PrimeFilter(PrimeFilter.Format.BINARY, PrimeFilter.Output.BITS, 2, 1 << 12, 100).run(in, out);
+    assertEquals(expectedBits, BitSet.valueOf(Files.readAllBytes(out)));
+
+    Files.write(in, Arrays.copyOf(bytes.array(), 12));
+    assertThrows(IOException.class, () -> new PrimeFilter(PrimeFilter.Format.BINARY, PrimeFilter.Output.BITS, 1).run(in, out));
+  }
+
+  @Test
+  public void testLatencyHistogram() {
+    LatencyHistogram h = new LatencyHistogram();
+    assertEquals(0, h.percentile(0.5));
+    for(long v = 1; v <= 100_000; v++)
+      h.record(v);
+    assertEquals(100_000, h.count());
+    assertEquals(100_000, h.percentile(1));
+    for(double q : new double[] {0.5, 0.9, 0.99}) {
+      long p = h.percentile(q);
+      assertTrue(p >= q * 100_000 && p <= q * 100_000 * (1 + 1.0 / LatencyHistogram.SUB_BUCKETS), q + ": " + p);
+    }
+    for(int i = 0; i < 1000; i++) {
+      long v = i < 8 ? i : (1L << (i % 63)) + i;
+      int b = LatencyHistogram.index(v);
+      assertTrue(LatencyHistogram.upper(b) >= v && (b == 0 || LatencyHistogram.upper(b - 1) < v), "" + v);
+    }
+  }
+
+  @Test
+  public void testPrimalityServer() throws Exception {
+    PrimalityServer server = PrimalityServer.start(0);
+    try {
+      HttpClient client = HttpClient.newHttpClient();
+      String base = "http://" + InetAddress.getLoopbackAddress().getHostAddress() + ":" + server.port();
+      assertEquals("true\n", get(client, base + "/isPrime?n=2147483647", 200));
+      assertEquals("false\n", get(client, base + "/isPrime?n=3215031751", 200));
+      assertEquals("true\n", get(client, base + "/isPrime?n=618970019642690137449562111", 200));
+      get(client, base + "/isPrime?n=x1", 400);
+      get(client, base + "/isPrime?n=-7", 400);
+      assertEquals("2\n3\n5\n7\n", get(client, base + "/range?from=0&to=10", 200));
+      get(client, base + "/range?from=0&to=2%5E40", 400);
+
+      StringBuilder body = new StringBuilder();
+      StringBuilder expected = new StringBuilder();
+      Random rnd = new Random(5);
+      for(int i = 0; i < 1000; i++) {
+        long v = rnd.nextLong() >>> (1 + rnd.nextInt(63));
+        body.append(v).append(i % 2 == 0 ? " " : ",\n");
+        expected.append(Primality.isPrime(v)).append('\n');
+      }
+      assertEquals(expected.toString(), post(client, base + "/batch", body.toString(), 200));
+      assertEquals("false\ntrue\n", post(client, base + "/batch", "2^64 618970019642690137449562111", 200));
+
+      // Concurrent single requests, coalesced into fewer engine calls.
+      try(ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+        List<Future<Boolean>> results = new ArrayList<>();
+        long[] values = rnd.longs(500, 0, Long.MAX_VALUE).toArray();
+        for(long v : values)
+          results.add(clients.submit(() -> Boolean.parseBoolean(get(client, base + "/isPrime?n=" + v, 200).trim())));
+        for(int i = 0; i < values.length; i++)
+          assertEquals(Primality.isPrime(values[i]), (boolean)results.get(i).get(), "failed " + values[i]);
+      }
+      String stats = get(client, base + "/stats", 200);
+      assertTrue(stats.contains("isPrime: count 505"), stats);
+      assertTrue(stats.contains("batch: count 2"), stats);
+
+      // Sizes are checked before any work, 2^2000000000 would take 250 MB.
+      get(client, base + "/isPrime?n=2%5E2000000000", 400);
+      get(client, base + "/isPrime?n=2%5E" + PrimalityServer.MAX_BITS, 400);
+      assertEquals("false\n", get(client, base + "/isPrime?n=2%5E" + (PrimalityServer.MAX_BITS - 1), 200));
+      get(client, base + "/isPrime?n=1" + "0".repeat(PrimalityServer.MAX_BITS), 400);
+      post(client, base + "/batch", "7 2^5000", 400);
+      post(client, base + "/batch", "7 ".repeat(PrimalityServer.MAX_BODY / 2 + 1), 400);
+      assertEquals("true\n".repeat(1000), post(client, base + "/batch", "7 ".repeat(1000), 200));
+    } finally {
+      server.stop();
+    }
+  }
+
+  private static String get(HttpClient client, String uri, int status) throws IOException, InterruptedException {
+    HttpResponse<String> response = client.send(HttpRequest.newBuilder(URI.create(uri)).build(),
+      HttpResponse.BodyHandlers.ofString());
+    assertEquals(status, response.statusCode(), response.body());
+    return response.body();
+  }
+
+  private static String post(HttpClient client, String uri, String body, int status) throws IOException, InterruptedException {
+    HttpResponse<String> response = client.send(HttpRequest.newBuilder(URI.create(uri))
+      .POST(HttpRequest.BodyPublishers.ofString(body)).build(), HttpResponse.BodyHandlers.ofString());
+    assertEquals(status, response.statusCode(), response.body());
+    return response.body();
+  }
+
+  @Test
+  public void testFactorizer64() {
+    Factorizer64 factorizer = new Factorizer64();
+    long[] out = new long[Factorizer64.MAX_FACTORS];
+
+    assertEquals(0, factorizer.factor(1, out));
+    assertEquals(62, factorizer.factor(1L << 62, out));
+    assertEquals(2, out[61]);
+    assertEquals(3, factorizer.factor(561, out));
+    assertArrayEquals(new long[] {3, 11, 17}, Arrays.copyOf(out, 3));
+
+    long p = Primality.prevPrime(3037000500L), q = Primality.prevPrime(p);
+    assertEquals(2, factorizer.factor(p * p, out));
+    assertArrayEquals(new long[] {p, p}, Arrays.copyOf(out, 2));
+    assertEquals(2, factorizer.factor(p * q, out));
+    assertArrayEquals(new long[] {q, p}, Arrays.copyOf(out, 2));
+    // Strong pseudoprime to the first 9 primes, with three prime factors.
+    assertEquals(3, factorizer.factor(3825123056546413051L, out));
+    assertArrayEquals(new long[] {149491, 747451, 34233211}, Arrays.copyOf(out, 3));
+    assertEquals(1, factorizer.factor(Long.MAX_VALUE - 24, out));
+
+    Random rnd = new Random(1);
+    for(int i = 0; i < 3000; i++) {
+      long n = 1 + (rnd.nextLong() >>> (1 + rnd.nextInt(63)));
+      int count = factorizer.factor(n, out);
+      long product = 1;
+      for(int j = 0; j < count; j++) {
+        assertTrue(Primality.isPrime(out[j]), String.format("failed %d", n));
+        assertTrue(j == 0 || out[j - 1] <= out[j], String.format("failed %d", n));
+        product *= out[j];
+      }
+      assertEquals(n, product);
+    }
+
+    assertThrows(IllegalArgumentException.class, () -> factorizer.factor(0, out));
+    assertThrows(IllegalArgumentException.class, () -> factorizer.factor(1L << 10, new long[9]));
+    assertThrows(IllegalArgumentException.class, () -> factorizer.factor(p * q, new long[1]));
+  }
+
+  @Test
+  public void testRandomPrime() {
+    for(int bits : new int[] {32, 64, 100, 512, 1024}) {
+      SplittableRandom rnd = new SplittableRandom(bits);
+      for(int i = 0; i < 5; i++) {
+        BigInteger p = RandomPrime.probablePrime(bits, rnd);
+        assertEquals(bits, p.bitLength());
+        assertTrue(p.isProbablePrime(50), p.toString());
+      }
+    }
+    assertEquals(RandomPrime.probablePrime(512, new SplittableRandom(1)),
+      RandomPrime.probablePrime(512, new SplittableRandom(1)));
+    assertTrue(RandomPrime.probablePrime(512, 0, new SecureRandom()).isProbablePrime(50));
+
+    // Same primes in the same order as one split per prime, on any number of threads.
+    BigInteger[] primes = RandomPrime.probablePrimes(6, 256, 4, new SplittableRandom(2));
+    SplittableRandom rnd = new SplittableRandom(2);
+    for(BigInteger p : primes)
+      assertEquals(RandomPrime.probablePrime(256, 4, rnd.split()), p);
+
+    // Residues down the product tree, from starts shorter and longer than the products.
+    long[] odd = Primality.primesInRange(3, RandomPrime.SIEVE_LIMIT).toArray();
+    for(int bits : new int[] {32, 100, 512, 1024, 4096, 20000}) {
+      BigInteger start = new BigInteger(bits, new Random(bits)).setBit(bits - 1);
+      for(int count : new int[] {1, 1000, RandomPrime.sievePrimes(bits), odd.length}) {
+        int[] residues = new int[count];
+        RandomPrime.residues(start, residues);
+        for(int j = 0; j < count; j++)
+          assertEquals(start.mod(BigInteger.valueOf(odd[j])).intValue(), residues[j],
+            String.format("failed %d bits mod %d", bits, odd[j]));
+      }
+    }
+
+    assertThrows(IllegalArgumentException.class, () -> RandomPrime.probablePrime(31, new SplittableRandom(1)));
+    assertThrows(IllegalArgumentException.class, () -> RandomPrime.probablePrime(64, -1, new SplittableRandom(1)));
+  }
+
+  @Test
+  public void testParallelIsPrime() {
+    Random rnd = new Random(1);
+    long[] longs = new long[20_003];
+    for(int i = 0; i < longs.length; i++)
+      longs[i] = rnd.nextLong() >>> rnd.nextInt(64);
+    final int off = 5, len = longs.length - 9;
+    long[] outBits = new long[(len + 63) >>> 6];
+    Primality.parallelIsPrime(longs, off, len, outBits);
+    for(int i = 0; i < len; i++)
+      assertEquals(Primality.isPrime(longs[off + i]), (outBits[i >>> 6] & (1L << i)) != 0,
+        String.format("failed %d", longs[off + i]));
+    BitSet primes = Primality.parallelIsPrime(longs);
+    for(int i = 0; i < longs.length; i++)
+      assertEquals(Primality.isPrime(longs[i]), primes.get(i), String.format("failed %d", longs[i]));
+
+    BigInteger[] bigs = new BigInteger[1_000];
+    for(int i = 0; i < bigs.length; i++)
+      bigs[i] = new BigInteger(1 + rnd.nextInt(128), rnd).setBit(0);
+    primes = Primality.parallelIsPrime(bigs);
+    for(int i = 0; i < bigs.length; i++)
+      assertEquals(Primality.isPrime(bigs[i]), primes.get(i), String.format("failed %s", bigs[i]));
+
+    assertThrows(IndexOutOfBoundsException.class, () -> Primality.parallelIsPrime(longs, 10, longs.length, new long[400]));
+    assertThrows(IllegalArgumentException.class, () -> Primality.parallelIsPrime(longs, 0, 129, new long[2]));
+  }
+
+  @Test
+  public void testExhaustiveCheckpoint() throws IOException {
+    Path file = Files.createTempFile("exhaustive", ".ckpt");
+    file.toFile().deleteOnExit();
+    Files.delete(file);
+    final String header = "# MillerRabinExhaustive engine=64 from=0 to=100 chunk=10";
+    try(ExhaustiveCheckpoint checkpoint = new ExhaustiveCheckpoint(file, header)) {
+      assertEquals(BigInteger.ZERO, checkpoint.doneCount());
+      checkpoint.completed(BigInteger.valueOf(0), BigInteger.valueOf(10));
+      checkpoint.completed(BigInteger.valueOf(20), BigInteger.valueOf(30));
+    }
+    // A crash in the middle of "40 50".
+    Files.write(file, "40 5".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+    try(ExhaustiveCheckpoint checkpoint = new ExhaustiveCheckpoint(file, header)) {
+      assertEquals(BigInteger.valueOf(20), checkpoint.doneCount());
+      assertTrue(checkpoint.isDone(BigInteger.valueOf(0)));
+      assertTrue(checkpoint.isDone(BigInteger.valueOf(20)));
+      assertTrue(!checkpoint.isDone(BigInteger.valueOf(10)));
+      assertTrue(!checkpoint.isDone(BigInteger.valueOf(40)));
+      checkpoint.completed(BigInteger.valueOf(40), BigInteger.valueOf(50));
+    }
+    assertEquals(Arrays.asList(header, "0 10", "20 30", "40 5 torn", "40 50"),
+      Files.readAllLines(file, StandardCharsets.UTF_8));
+
+    try(ExhaustiveCheckpoint checkpoint = new ExhaustiveCheckpoint(file, header)) {
+      assertEquals(BigInteger.valueOf(30), checkpoint.doneCount());
+      assertTrue(checkpoint.isDone(BigInteger.valueOf(40)));
+    }
+    assertThrows(IllegalStateException.class,
+      () -> new ExhaustiveCheckpoint(file, "# MillerRabinExhaustive engine=64 from=0 to=100 chunk=20"));
+  }
+
+  @Test
+  public void testMillerRabinExhaustive() throws InterruptedException {
+    final int limit = 1_000_000;
+    SieveEratBitVector sieve = new SieveEratBitVector(limit);
+    ChunkSieve.Window window = new ChunkSieve(limit - 1).newWindow();
+    for(int lo = 0; lo < limit; lo += 99_991) {
+      int last = Math.min(lo + 99_990, limit - 1);
+      window.sieve(lo, last);
+      for(int n = lo; n <= last; n++)
+        assertEquals(sieve.isPrime(n), window.isPrime(n), String.format("failed %d", n));
+    }
+
+    MillerRabinExhaustive exhaustive = new MillerRabinExhaustive();
+    exhaustive.option("from=0");
+    exhaustive.option("to=" + limit);
+    exhaustive.option("chunk=10_000");
+    exhaustive.option("threads=4");
+    exhaustive.testMillerMT(x -> Primality.isPrime(x), x -> Primality.isPrime(x));
+    // Wrong from 561 on, on both paths: the run must fail instead of completing.
+    assertThrows(IllegalStateException.class,
+      () -> exhaustive.testMillerMT(null, x -> x == 561 || Primality.isPrime(x)));
+    assertThrows(IllegalStateException.class,
+      () -> exhaustive.testMillerMT(x -> x.longValue() == 561 || Primality.isPrime(x), null));
+  }
+
   private void testRange(List<Long> nums2, MethodProvider obj) {
     Set<Long> nums2set = new HashSet<Long>(nums2);
     for(long n = nums2.get(0); n <= nums2.get(nums2.size() - 1); n++) {
@@ -15,14 +15,20 @@ public class MultiTestHelp
   private static final MillerRabin32 millerRabin32 = new MillerRabin32();
   private static final MillerRabin64Limited millerRabin64Limited = new MillerRabin64Limited();
   private static final MillerRabin64 millerRabin64 = new MillerRabin64();
+  private static final MillerRabin64Montgomery millerRabin64Montgomery = new MillerRabin64Montgomery();
+  private static final MillerRabinHashed millerRabinHashed = new MillerRabinHashed();
   private static final MillerRabinBig millerRabinBig = new MillerRabinBig();
+  private static final MillerRabin128 millerRabin128 = new MillerRabin128();
 
   public final static Stream<MethodProvider> primeMethodsGeneric(boolean has1, boolean has2, boolean has3, boolean has4) {
     List<MethodProvider> li = new ArrayList<MethodProvider>();
     if (has1)li.add(MethodProvider.of("MillerRabin1", (IntPredicate)millerRabin32::isPrime));
     if (has2)li.add(MethodProvider.of("MillerRabin2", (LongPredicate)millerRabin64Limited::isPrime));
     if (has3)li.add(MethodProvider.of("MillerRabin3", (LongPredicate)millerRabin64::isPrime));
+    if (has3)li.add(MethodProvider.of("MillerRabin64Montgomery", (LongPredicate)millerRabin64Montgomery::isPrime));
+    if (has3)li.add(MethodProvider.of("MillerRabinHashed", (LongPredicate)millerRabinHashed::isPrime));
     if (has4)li.add(MethodProvider.of("MillerRabinBig", (Predicate<BigInteger>)millerRabinBig::isPrime));
+    if (has4)li.add(MethodProvider.of("MillerRabin128", (Predicate<BigInteger>)millerRabin128::isPrime));
     return li.stream();
   }
   